@@ -18,6 +18,7 @@ package com.github.restdriver.clientdriver;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
@@ -28,6 +29,9 @@ import com.github.restdriver.clientdriver.exception.ClientDriverFailedExpectatio
 import com.github.restdriver.clientdriver.exception.ClientDriverInternalException;
 import com.github.restdriver.clientdriver.exception.ClientDriverSetupException;
 import com.github.restdriver.clientdriver.jetty.ClientDriverJettyHandler;
+import com.github.restdriver.clientdriver.jetty.ClientDriverStats;
+import com.github.restdriver.clientdriver.jetty.DefaultClientDriverJettyHandler;
+import com.github.restdriver.clientdriver.jetty.ServerSettings;
 
 /**
  * The main class which acts as a facade for the Client Driver.
@@ -40,6 +44,7 @@ public class ClientDriver {
     private int port = -1;
     private List<ClientDriverListener> listeners = new ArrayList<ClientDriverListener>();
     protected ClientDriverJettyHandler handler;
+    protected ServerSettings serverSettings = new ServerSettings();
     
     /**
      * Constructor. This will find a free port, bind to it and start the server
@@ -63,7 +68,24 @@ public class ClientDriver {
      *            not free.
      */
     public ClientDriver(ClientDriverJettyHandler handler, int port) {
+        this(handler, port, new ServerSettings());
+    }
+    
+    /**
+     * Constructor. This will bind to the given port and start the server
+     * up before it returns.
+     * 
+     * @param handler
+     *            The {@link ClientDriverJettyHandler} to use.
+     * @param port
+     *            The port to listen on, or 0 to find a free one. Expect
+     *            startup errors if this port is not free.
+     * @param serverSettings
+     *            The threads and connector settings of the server.
+     */
+    public ClientDriver(ClientDriverJettyHandler handler, int port, ServerSettings serverSettings) {
         this.handler = handler;
+        this.serverSettings = serverSettings;
         this.jettyServer = createAndStartJetty(port);
     }
 
@@ -76,8 +98,8 @@ public class ClientDriver {
     }
 
     protected Server createAndStartJetty(int port) {
-        Server jetty = new Server();
-        jetty.setHandler(handler);
+        Server jetty = new Server(serverSettings.createThreadPool());
+        jetty.setHandler(serverSettings.createServerHandler(handler));
         ServerConnector connector = createConnector(jetty, port);
         jetty.addConnector(connector);
         try {
@@ -95,7 +117,15 @@ public class ClientDriver {
     }
 
     protected ServerConnector createConnector(Server jetty, int port) {
-        ServerConnector connector = new ServerConnector(jetty, getSslContextFactory());
+        SslContextFactory sslContextFactory = getSslContextFactory();
+        ServerConnector connector;
+        if (sslContextFactory == null) {
+            connector = new ServerConnector(jetty, serverSettings.getAcceptors(), serverSettings.getSelectors(), serverSettings.createCleartextConnectionFactories());
+        } else if (serverSettings.isHttp2Cleartext()) {
+            throw new ClientDriverSetupException("HTTP/2 without TLS cannot be used with a secure client driver", null);
+        } else {
+            connector = new ServerConnector(jetty, serverSettings.getAcceptors(), serverSettings.getSelectors(), sslContextFactory);
+        }
         connector.setHost(null);
         connector.setPort(port);
         return connector;
@@ -163,7 +193,7 @@ public class ClientDriver {
      */
     public void shutdownQuietly() {
         try {
-            jettyServer.stop();
+            stopServer();
         } catch (Exception e) {
             throw new ClientDriverInternalException("Error shutting down jetty", e);
         } finally {
@@ -171,6 +201,16 @@ public class ClientDriver {
         }
     }
     
+    /**
+     * Stops the server this driver receives requests from, when it is shut down.
+     * 
+     * @throws Exception
+     *             if the server could not be stopped
+     */
+    protected void stopServer() throws Exception {
+        jettyServer.stop();
+    }
+    
     /**
      * Shutdown the server and calls {@link #verify()}.
      */
@@ -197,6 +237,29 @@ public class ClientDriver {
         listeners.add(listener);
     }
     
+    /**
+     * Makes this driver ready for its next user without stopping its server, as if it had been shut down and a new
+     * one started on the same port. Connections still open from the last user are closed, so that none of its
+     * requests can reach the next user's expectations.
+     */
+    void recycle() {
+        try {
+            completed();
+        } finally {
+            listeners.clear();
+            closeConnections();
+            reset();
+        }
+    }
+    
+    private void closeConnections() {
+        if (jettyServerConnector != null) {
+            for (EndPoint endPoint : jettyServerConnector.getConnectedEndPoints()) {
+                endPoint.close();
+            }
+        }
+    }
+    
     private void completed() {
         for (ClientDriverListener listener : listeners) {
             listener.hasCompleted();
@@ -206,4 +269,19 @@ public class ClientDriver {
     public void verify(ClientDriverRequest clientDriverRequest, int times) {
         handler.verify(clientDriverRequest, times);
     }
+    
+    /**
+     * Gets a snapshot of what this driver has handled so far, such as request counts, bytes in and out and how long
+     * requests took to handle. Only the default handler keeps statistics.
+     * 
+     * @return The statistics
+     * @throws UnsupportedOperationException
+     *             if this driver was created with a handler other than {@link DefaultClientDriverJettyHandler}
+     */
+    public ClientDriverStats getStats() {
+        if (!(handler instanceof DefaultClientDriverJettyHandler)) {
+            throw new UnsupportedOperationException("Statistics are only kept by " + DefaultClientDriverJettyHandler.class.getSimpleName());
+        }
+        return ((DefaultClientDriverJettyHandler) handler).getStats();
+    }
 }
@@ -15,18 +15,20 @@
  */
 package com.github.restdriver.clientdriver;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.github.restdriver.clientdriver.exception.ClientDriverInvalidExpectationException;
 
 /**
- * An expectation made within the client driver.
+ * An expectation made within the client driver. Matches may be claimed concurrently from many request threads.
  */
 public class ClientDriverExpectation {
     
     private final ClientDriverRequestResponsePair pair;
-    private int numberOfTimes = 1;
-    private int numberOfMatches;
-    private boolean matchAnyTimes;
-    private MatchedRequestHandler matchedRequestHandler = new NullRequestHandler();
+    private final AtomicInteger numberOfMatches = new AtomicInteger();
+    private volatile int numberOfTimes = 1;
+    private volatile boolean matchAnyTimes;
+    private volatile MatchedRequestHandler matchedRequestHandler = new NullRequestHandler();
     
     /**
      * Creates a new expectation instance.
@@ -35,6 +37,9 @@ public class ClientDriverExpectation {
      */
     public ClientDriverExpectation(ClientDriverRequestResponsePair pair) {
         this.pair = pair;
+        
+        // matching starts from a ready plan, which a later change to the request discards
+        pair.getRequest().getMatchPlan();
     }
     
     /**
@@ -79,18 +84,54 @@ public class ClientDriverExpectation {
      *          the request we're matching against
      */
     public final void match(HttpRealRequest realRequest) {
-        numberOfMatches += 1;
+        numberOfMatches.incrementAndGet();
         
         matchedRequestHandler.onMatch(realRequest);
     }
     
+    /**
+     * Indicate that this expectation has been matched, unless it has already been matched as many times as it should
+     * have been. When called from several threads at once no more than the expected number of matches is ever
+     * claimed, so a request which loses the race can go on to try other expectations.
+     * 
+     * @param realRequest
+     *          the request we're matching against
+     * @return True if the match was claimed, false if the expectation was already satisfied
+     */
+    public final boolean tryMatch(HttpRealRequest realRequest) {
+        while (true) {
+            int current = numberOfMatches.get();
+            
+            if (!matchAnyTimes && current >= numberOfTimes) {
+                return false;
+            }
+            
+            if (numberOfMatches.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        
+        matchedRequestHandler.onMatch(realRequest);
+        return true;
+    }
+    
     /**
      * Determine whether this expectation has been satisfied.
      * 
      * @return True if the expectation has been matched as many times as it should have
      */
     public final boolean isSatisfied() {
-        return !matchAnyTimes && numberOfTimes == numberOfMatches;
+        return !matchAnyTimes && numberOfTimes == numberOfMatches.get();
+    }
+    
+    /**
+     * Gets the number of times this expectation has been matched. The count is kept on the expectation itself, so it
+     * still holds once the expectation has been satisfied and the handler no longer matches against it.
+     * 
+     * @return The number of matches
+     */
+    public final int getMatchCount() {
+        return numberOfMatches.get();
     }
     
     /**
@@ -117,7 +158,7 @@ public class ClientDriverExpectation {
             expectedString = String.valueOf(numberOfTimes);
         }
         
-        return "expected: " + expectedString + ", actual: " + numberOfMatches;
+        return "expected: " + expectedString + ", actual: " + numberOfMatches.get();
         
     }
     
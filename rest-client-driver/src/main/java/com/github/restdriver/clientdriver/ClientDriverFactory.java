@@ -15,10 +15,14 @@
  */
 package com.github.restdriver.clientdriver;
 
+import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.restdriver.clientdriver.jetty.DefaultClientDriverJettyHandler;
+import com.github.restdriver.clientdriver.jetty.RequestJournal;
+import com.github.restdriver.clientdriver.jetty.RequestJournal.EvictionPolicy;
+import com.github.restdriver.clientdriver.jetty.ServerSettings;
 
 /**
  * Main entry point to the Rest Client Driver.
@@ -26,13 +30,21 @@ import com.github.restdriver.clientdriver.jetty.DefaultClientDriverJettyHandler;
 public final class ClientDriverFactory {
     private static final Logger LOGGER = LoggerFactory.getLogger(ClientDriverFactory.class);
     
+    private int journalCapacity = RequestJournal.DEFAULT_CAPACITY;
+    private EvictionPolicy journalEvictionPolicy = EvictionPolicy.EVICT_OLDEST;
+    private int maxRetainedBodyLength = RequestJournal.DEFAULT_MAX_RETAINED_BODY_LENGTH;
+    private int matchCacheCapacity;
+    private ServerSettings serverSettings = new ServerSettings();
+    private boolean statsOverJmx;
+    private double rejectionLogSampleRate = 1;
+    
     /**
      * Factory method to create and start a {@link ClientDriver}. A port will be chosen automatically.
      * 
      * @return A new {@link ClientDriver}, which has found a free port, bound to it and started up.
      */
     public ClientDriver createClientDriver() {
-        ClientDriver clientDriver = new ClientDriver(new DefaultClientDriverJettyHandler(new DefaultRequestMatcher()));
+        ClientDriver clientDriver = new ClientDriver(createHandler(), 0, serverSettings);
         LOGGER.debug("ClientDriver created at '" + clientDriver.getBaseUrl() + "'.");
         return clientDriver;
     }
@@ -46,9 +58,134 @@ public final class ClientDriverFactory {
      * @return A new {@link ClientDriver}, which has found a free port, bound to it and started up.
      */
     public ClientDriver createClientDriver(int port) {
-        ClientDriver clientDriver = new ClientDriver(new DefaultClientDriverJettyHandler(new DefaultRequestMatcher()), port);
+        ClientDriver clientDriver = new ClientDriver(createHandler(), port, serverSettings);
+        LOGGER.debug("ClientDriver created at '" + clientDriver.getBaseUrl() + "'.");
+        return clientDriver;
+    }
+    
+    /**
+     * Factory method to create a {@link ClientDriver} which receives its requests from a shared server, rather than
+     * starting a server of its own. Its base URL includes a path prefix of its own. The server settings of this
+     * factory are not used, as the shared server already has its own.
+     * 
+     * @param server The shared server to receive requests from.
+     * 
+     * @return A new {@link ClientDriver}, which is ready to use.
+     */
+    public ClientDriver createClientDriver(SharedClientDriverServer server) {
+        ClientDriver clientDriver = server.register(createHandler());
         LOGGER.debug("ClientDriver created at '" + clientDriver.getBaseUrl() + "'.");
         return clientDriver;
     }
     
+    /**
+     * Sets how many received requests each driver keeps for {@link ClientDriver#verify(ClientDriverRequest, int)}. By
+     * default this is {@link RequestJournal#DEFAULT_CAPACITY}.
+     * 
+     * @param journalCapacity
+     *            the maximum number of requests to keep
+     * @return the factory object
+     */
+    public ClientDriverFactory journalCapacity(int journalCapacity) {
+        this.journalCapacity = journalCapacity;
+        return this;
+    }
+    
+    /**
+     * Sets what each driver does with a received request once its journal is full. By default the oldest request is
+     * evicted.
+     * 
+     * @param journalEvictionPolicy
+     *            the eviction policy
+     * @return the factory object
+     */
+    public ClientDriverFactory journalEvictionPolicy(EvictionPolicy journalEvictionPolicy) {
+        this.journalEvictionPolicy = journalEvictionPolicy;
+        return this;
+    }
+    
+    /**
+     * Sets the longest request body each driver keeps in its journal when no expectation read the body while the request
+     * was being handled. {@link ClientDriver#verify(ClientDriverRequest, int)} cannot match an expected body against a
+     * request whose body was not kept. By default this is {@link RequestJournal#DEFAULT_MAX_RETAINED_BODY_LENGTH}.
+     * 
+     * @param maxRetainedBodyLength
+     *            the length in bytes of the longest body to keep
+     * @return the factory object
+     */
+    public ClientDriverFactory maxRetainedBodyLength(int maxRetainedBodyLength) {
+        Validate.isTrue(maxRetainedBodyLength >= 0, "Maximum retained body length must not be negative.");
+        this.maxRetainedBodyLength = maxRetainedBodyLength;
+        return this;
+    }
+    
+    /**
+     * Sets how many distinct requests each driver remembers the matches of, so that a request repeated against
+     * {@link ClientDriverExpectation#anyTimes()} expectations is not matched again. A match is only remembered while
+     * every expectation it was checked against matches any number of times and ignores the body, and everything
+     * remembered is forgotten when an expected request is changed. The drivers made here match with the default
+     * {@link DefaultRequestMatcher}, which is the only matcher whose matches are remembered, and it relies on any
+     * Hamcrest matchers of those expectations giving the same answer every time they see the same request. By default
+     * nothing is remembered.
+     * 
+     * @param matchCacheCapacity
+     *            the maximum number of requests to remember, or 0 for none
+     * @return the factory object
+     */
+    public ClientDriverFactory matchCacheCapacity(int matchCacheCapacity) {
+        this.matchCacheCapacity = matchCacheCapacity;
+        return this;
+    }
+    
+    /**
+     * Sets the thread pool and connector settings of each driver's server, for example to size its thread pool or to
+     * handle requests on virtual threads. By default Jetty's own defaults are used.
+     * 
+     * @param serverSettings
+     *            the server settings
+     * @return the factory object
+     */
+    public ClientDriverFactory serverSettings(ServerSettings serverSettings) {
+        this.serverSettings = serverSettings;
+        return this;
+    }
+    
+    /**
+     * Sets whether each driver's statistics are registered as an MXBean in the platform MBean server while it is
+     * running, as well as being available from {@link ClientDriver#getStats()}. By default they are not. Each driver
+     * is registered as {@code com.github.restdriver.clientdriver:type=ClientDriverStats,id=}<i>n</i>, and its
+     * attributes are read live from its counters.
+     * 
+     * @param statsOverJmx
+     *            whether to expose statistics over JMX
+     * @return the factory object
+     */
+    public ClientDriverFactory statsOverJmx(boolean statsOverJmx) {
+        this.statsOverJmx = statsOverJmx;
+        return this;
+    }
+    
+    /**
+     * Sets the fraction of rejected matches which each driver logs at INFO, chosen at random. Whichever are logged,
+     * the reasons an unexpected request was rejected are recorded on it and given when it fails a test, up to a limit
+     * for each request. By default every rejection is logged.
+     * 
+     * @param rejectionLogSampleRate
+     *            the fraction of rejections to log, from 0 for none to 1 for all
+     * @return the factory object
+     */
+    public ClientDriverFactory rejectionLogSampleRate(double rejectionLogSampleRate) {
+        Validate.isTrue(rejectionLogSampleRate >= 0 && rejectionLogSampleRate <= 1, "Rejection log sample rate must be between 0 and 1.");
+        this.rejectionLogSampleRate = rejectionLogSampleRate;
+        return this;
+    }
+    
+    private DefaultClientDriverJettyHandler createHandler() {
+        DefaultClientDriverJettyHandler handler = new DefaultClientDriverJettyHandler(new DefaultRequestMatcher(rejectionLogSampleRate), new RequestJournal(journalCapacity, journalEvictionPolicy, maxRetainedBodyLength), matchCacheCapacity);
+        if (statsOverJmx) {
+            handler.exposeStatsOverJmx();
+        }
+        return handler;
+    }
+    
 }
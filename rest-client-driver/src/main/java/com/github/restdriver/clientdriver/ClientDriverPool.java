@@ -0,0 +1,135 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A pool of started client drivers, so that a test can have a driver without starting and stopping a Jetty server.
+ * A released driver is verified and reset rather than shut down, and goes back in the pool keeping its port, its
+ * thread pool and everything the JIT has learned about it.
+ *
+ * <p>The most recently released driver is handed out first, since it is the warmest. If the pool is empty a new
+ * driver is started, and a driver released into a full pool is shut down. A driver from a pool must be given back
+ * with {@link #release(ClientDriver)} rather than shut down. This class is thread-safe.</p>
+ */
+public final class ClientDriverPool {
+
+    private final ClientDriverFactory factory;
+    private final BlockingDeque<ClientDriver> idle;
+    private final Set<ClientDriver> acquired = Collections.newSetFromMap(new ConcurrentHashMap<ClientDriver, Boolean>());
+
+    /**
+     * Creates a pool and starts its drivers, which are created by a default factory.
+     *
+     * @param size
+     *            The number of drivers to keep started
+     */
+    public ClientDriverPool(int size) {
+        this(size, new ClientDriverFactory());
+    }
+
+    /**
+     * Creates a pool and starts its drivers.
+     *
+     * @param size
+     *            The number of drivers to keep started
+     * @param factory
+     *            The factory to create drivers with
+     */
+    public ClientDriverPool(int size, ClientDriverFactory factory) {
+        Validate.isTrue(size > 0, "Pool size must be positive.");
+        this.factory = factory;
+        this.idle = new LinkedBlockingDeque<ClientDriver>(size);
+
+        for (int i = 0; i < size; i++) {
+            idle.offerFirst(factory.createClientDriver());
+        }
+    }
+
+    /**
+     * Takes a driver from the pool, or starts a new one if the pool is empty.
+     *
+     * @return A driver with no expectations and no recorded requests
+     */
+    public ClientDriver acquire() {
+        ClientDriver driver = idle.pollFirst();
+        if (driver == null) {
+            driver = factory.createClientDriver();
+        }
+        acquired.add(driver);
+        return driver;
+    }
+
+    /**
+     * Verifies a driver and gives it back to the pool. The driver is reset and returned to the pool even if it fails
+     * verification.
+     *
+     * @param driver
+     *            A driver acquired from this pool
+     * @throws com.github.restdriver.clientdriver.exception.ClientDriverFailedExpectationException
+     *             if the driver's expectations were not met
+     * @throws IllegalArgumentException
+     *             if the driver was not acquired from this pool, or has already been given back
+     */
+    public void release(ClientDriver driver) {
+        removeAcquired(driver);
+        try {
+            driver.verify();
+        } finally {
+            giveBack(driver);
+        }
+    }
+
+    /**
+     * Shuts down every driver in the pool. Drivers which have been acquired and not released are left running.
+     */
+    public void shutdown() {
+        ClientDriver driver;
+        while ((driver = idle.pollFirst()) != null) {
+            driver.shutdownQuietly();
+        }
+    }
+
+    /**
+     * Gives a driver back to the pool without verifying it.
+     */
+    void recycle(ClientDriver driver) {
+        removeAcquired(driver);
+        giveBack(driver);
+    }
+
+    private void removeAcquired(ClientDriver driver) {
+        Validate.isTrue(acquired.remove(driver), "Driver was not acquired from this pool, or has already been released.");
+    }
+
+    private void giveBack(ClientDriver driver) {
+        try {
+            driver.recycle();
+        } finally {
+            if (!idle.offerFirst(driver)) {
+                driver.shutdownQuietly();
+            }
+        }
+    }
+
+}
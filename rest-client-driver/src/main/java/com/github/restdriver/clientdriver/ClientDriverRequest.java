@@ -16,16 +16,20 @@
 package com.github.restdriver.clientdriver;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Pattern;
 
 import org.apache.commons.codec.binary.Base64;
 import org.hamcrest.Matcher;
-import org.hamcrest.core.IsEqual;
 
 import com.github.restdriver.clientdriver.capture.BodyCapture;
 import com.github.restdriver.matchers.MatchesRegex;
@@ -43,22 +47,31 @@ public final class ClientDriverRequest {
     /**
      * Class that represents an HTTP method. The standard ones are implemented as
      * static values and any more unusual ones can be created using the {@link #custom(String) custom} method.
+     * 
+     * <p>Methods are canonical: asking for the same method twice, in any case, gives the same instance, so two methods
+     * can usually be told apart by identity alone.</p>
      */
     public final static class Method {
         
+        // an endless stream of made-up methods must not grow the table forever, so past this they are not canonical
+        private static final int MAX_CANONICAL_METHODS = 256;
+        private static final ConcurrentMap<String, Method> CANONICAL = new ConcurrentHashMap<String, Method>();
+        
         // The 'standard' RFC 2616 methods (apart from connect)
-        public static Method GET = new Method("GET");
-        public static Method POST = new Method("POST");
-        public static Method PUT = new Method("PUT");
-        public static Method DELETE = new Method("DELETE");
-        public static Method OPTIONS = new Method("OPTIONS");
-        public static Method HEAD = new Method("HEAD");
-        public static Method TRACE = new Method("TRACE");
+        public static final Method GET = custom("GET");
+        public static final Method POST = custom("POST");
+        public static final Method PUT = custom("PUT");
+        public static final Method DELETE = custom("DELETE");
+        public static final Method OPTIONS = custom("OPTIONS");
+        public static final Method HEAD = custom("HEAD");
+        public static final Method TRACE = custom("TRACE");
         
-        private String value;
+        private final String value;
+        private final boolean canonical;
         
-        private Method(String value) {
-            this.value = value.toUpperCase();
+        private Method(String value, boolean canonical) {
+            this.value = value;
+            this.canonical = canonical;
         }
         
         /**
@@ -69,7 +82,26 @@ public final class ClientDriverRequest {
          * @return An instance of that method.
          */
         public static Method custom(String value) {
-            return new Method(value);
+            
+            // methods nearly always arrive in upper case already, so this usually avoids converting them
+            Method method = CANONICAL.get(value);
+            if (method != null) {
+                return method;
+            }
+            
+            String upperCase = value.toUpperCase(Locale.ENGLISH);
+            method = CANONICAL.get(upperCase);
+            if (method != null) {
+                return method;
+            }
+            
+            if (CANONICAL.size() >= MAX_CANONICAL_METHODS) {
+                return new Method(upperCase, false);
+            }
+            
+            Method created = new Method(upperCase, true);
+            method = CANONICAL.putIfAbsent(upperCase, created);
+            return method == null ? created : method;
         }
         
         @Override
@@ -81,15 +113,15 @@ public final class ClientDriverRequest {
             
             Method method = (Method) o;
             
-            if (value != null ? !value.equals(method.value) : method.value != null)
+            if (canonical && method.canonical)
                 return false;
             
-            return true;
+            return value.equals(method.value);
         }
         
         @Override
         public int hashCode() {
-            return value != null ? value.hashCode() : 0;
+            return value.hashCode();
         }
         
         @Override
@@ -98,7 +130,23 @@ public final class ClientDriverRequest {
         }
     }
     
+    /**
+     * Listens for changes to an expected request, so that whatever remembers how requests matched it can tell when
+     * that has gone stale.
+     */
+    public interface ChangeListener {
+        
+        /**
+         * Called after the request has been changed.
+         * 
+         * @param request The request which changed
+         */
+        void requestChanged(ClientDriverRequest request);
+        
+    }
+    
     private final Matcher<? extends String> path;
+    private final String literalPath;
     private final Multimap<String, Matcher<? extends String>> params;
     private final Map<String, Matcher<? extends String>> headers;
     private final Set<String> excludedHeaders;
@@ -108,6 +156,8 @@ public final class ClientDriverRequest {
     private Matcher<? extends String> bodyContentType;
     private boolean anyParams;
     private BodyCapture<?> bodyCapture;
+    private volatile RequestMatchPlan matchPlan;
+    private final CopyOnWriteArrayList<ChangeListener> changeListeners = new CopyOnWriteArrayList<ChangeListener>();
     
     /**
      * Constructor taking String matcher.
@@ -115,7 +165,12 @@ public final class ClientDriverRequest {
      * @param path The mandatory argument is the path which will be listened on
      */
     public ClientDriverRequest(Matcher<? extends String> path) {
+        this(path, null);
+    }
+    
+    private ClientDriverRequest(Matcher<? extends String> path, String literalPath) {
         this.path = path;
+        this.literalPath = literalPath;
         method = Method.GET;
         params = HashMultimap.create();
         headers = new HashMap<String, Matcher<? extends String>>();
@@ -129,7 +184,7 @@ public final class ClientDriverRequest {
      * @param path The mandatory argument is the path which will be listened on
      */
     public ClientDriverRequest(String path) {
-        this(new IsEqual<String>(path));
+        this(new LiteralMatcher(path), path);
     }
     
     /**
@@ -150,12 +205,44 @@ public final class ClientDriverRequest {
         return path;
     }
     
+    /**
+     * Get the literal path, if this request was created with one.
+     * 
+     * @return the exact path which requests are expected on, or null if the path is a Pattern or Matcher.
+     */
+    public String getLiteralPath() {
+        return literalPath;
+    }
+    
+    /**
+     * Get the path template, if this request was created with one.
+     * 
+     * @return the template of the paths which requests are expected on, or null if the path is not a {@link PathTemplate}.
+     */
+    public PathTemplate getPathTemplate() {
+        return path instanceof PathTemplate ? (PathTemplate) path : null;
+    }
+    
+    /**
+     * Get the values of the path template variables in a request, such as one given to a {@link MatchedRequestHandler}.
+     * 
+     * @param realRequest the request which was matched against this one
+     * @return the value of each variable in the order they appear in the template, or an empty map if this request has
+     *         no path template or the path of the real request does not match it.
+     */
+    public Map<String, String> getPathVariables(RealRequest realRequest) {
+        PathTemplate template = getPathTemplate();
+        Map<String, String> variables = template != null && realRequest.getPath() != null ? template.getVariables(realRequest.getPath()) : null;
+        return variables != null ? variables : Collections.<String, String> emptyMap();
+    }
+    
     /**
      * @param withMethod the method to set
      * @return the object you called the method on, so you can chain these calls.
      */
     public ClientDriverRequest withMethod(Method withMethod) {
         this.method = withMethod;
+        changed();
         return this;
     }
     
@@ -174,6 +261,7 @@ public final class ClientDriverRequest {
      */
     public ClientDriverRequest withAnyParams() {
         anyParams = true;
+        changed();
         return this;
     }
     
@@ -185,7 +273,8 @@ public final class ClientDriverRequest {
      * @return the object you called the method on, so you can chain these calls.
      */
     public ClientDriverRequest withParam(String key, String value) {
-        params.put(key, new IsEqual<String>(value));
+        params.put(key, new LiteralMatcher(value));
+        changed();
         return this;
     }
     
@@ -242,6 +331,7 @@ public final class ClientDriverRequest {
      */
     public ClientDriverRequest withParam(String key, Pattern value) {
         params.put(key, new MatchesRegex(value));
+        changed();
         return this;
     }
     
@@ -254,6 +344,7 @@ public final class ClientDriverRequest {
      */
     public ClientDriverRequest withParam(String key, Matcher<? extends String> value) {
         params.put(key, value);
+        changed();
         return this;
     }
     
@@ -270,9 +361,10 @@ public final class ClientDriverRequest {
             if (value instanceof Pattern) {
                 this.params.put(key, new MatchesRegex((Pattern) value));
             } else {
-                this.params.put(key, new IsEqual<String>(value.toString()));
+                this.params.put(key, new LiteralMatcher(value.toString()));
             }
         }
+        changed();
         return this;
     }
     
@@ -335,8 +427,9 @@ public final class ClientDriverRequest {
      * @return the object you called the method on, so you can chain these calls.
      */
     public ClientDriverRequest withBody(String withBodyContent, String withContentType) {
-        bodyContentMatcher = new IsEqual<String>(withBodyContent);
-        bodyContentType = new IsEqual<String>(withContentType);
+        bodyContentMatcher = new LiteralMatcher(withBodyContent);
+        bodyContentType = new LiteralMatcher(withContentType);
+        changed();
         return this;
     }
     
@@ -349,8 +442,9 @@ public final class ClientDriverRequest {
      * @return the object you called the method on, so you can chain these calls.
      */
     public ClientDriverRequest withBody(String withBodyContent, Pattern contentType) {
-        bodyContentMatcher = new IsEqual<String>(withBodyContent);
+        bodyContentMatcher = new LiteralMatcher(withBodyContent);
         bodyContentType = new MatchesRegex(contentType);
+        changed();
         return this;
     }
     
@@ -364,7 +458,8 @@ public final class ClientDriverRequest {
      */
     public ClientDriverRequest withBody(Pattern withBodyContent, String contentType) {
         bodyContentMatcher = new MatchesRegex(withBodyContent);
-        bodyContentType = new IsEqual<String>(contentType);
+        bodyContentType = new LiteralMatcher(contentType);
+        changed();
         return this;
     }
     
@@ -379,6 +474,7 @@ public final class ClientDriverRequest {
     public ClientDriverRequest withBody(Pattern withBodyContent, Pattern contentType) {
         bodyContentMatcher = new MatchesRegex(withBodyContent);
         bodyContentType = new MatchesRegex(contentType);
+        changed();
         return this;
     }
     
@@ -392,7 +488,8 @@ public final class ClientDriverRequest {
      */
     public ClientDriverRequest withBody(Matcher<? extends String> bodyContentMatcher, String contentType) {
         this.bodyContentMatcher = bodyContentMatcher;
-        this.bodyContentType = new IsEqual<String>(contentType);
+        this.bodyContentType = new LiteralMatcher(contentType);
+        changed();
         return this;
     }
     
@@ -422,8 +519,9 @@ public final class ClientDriverRequest {
         if (CONTENT_TYPE.equalsIgnoreCase(withHeaderName)) {
             bodyContentType = headerValueMatcher;
         } else {
-            headers.put(withHeaderName.toLowerCase(), headerValueMatcher);
+            headers.put(withHeaderName.toLowerCase(Locale.ENGLISH), headerValueMatcher);
         }
+        changed();
         return this;
     }
     
@@ -435,7 +533,7 @@ public final class ClientDriverRequest {
      * @return the object you called the method on, so you can chain these calls
      */
     public ClientDriverRequest withHeader(String withHeaderName, String withHeaderValue) {
-        return withHeader(withHeaderName, new IsEqual<String>(withHeaderValue));
+        return withHeader(withHeaderName, new LiteralMatcher(withHeaderValue));
     }
     
     /**
@@ -446,6 +544,7 @@ public final class ClientDriverRequest {
      */
     public ClientDriverRequest withoutHeader(String withoutHeaderName) {
         excludedHeaders.add(withoutHeaderName);
+        changed();
         return this;
     }
     
@@ -473,14 +572,15 @@ public final class ClientDriverRequest {
             if (headerValue instanceof Pattern) {
                 withHeader(headerName, new MatchesRegex((Pattern) headerValue));
             } else {
-                withHeader(headerName, new IsEqual<String>(headerValue.toString()));
+                withHeader(headerName, new LiteralMatcher(headerValue.toString()));
             }
         }
         return this;
     }
     
     public ClientDriverRequest withBasicAuth(String username, String password) {
-        headers.put("Authorization", new IsEqual<String>("Basic " + base64(username + ":" + password)));
+        headers.put("Authorization", new LiteralMatcher("Basic " + base64(username + ":" + password)));
+        changed();
         return this;
     }
     
@@ -502,4 +602,55 @@ public final class ClientDriverRequest {
         return new String(Base64.encodeBase64(content.getBytes()));
     }
     
+    /**
+     * Gets how many requests each check in the match plan has rejected since this request was last changed, as a
+     * profile of why requests have not matched it.
+     * 
+     * @return The number of rejections keyed by the name of each check, in the order the checks run
+     */
+    public Map<String, Long> getRejectionCounts() {
+        return getMatchPlan().getRejectionCounts();
+    }
+    
+    /**
+     * Gets the compiled form of this request, compiling it first if it has changed since it was last compiled.
+     * 
+     * @return The match plan
+     */
+    RequestMatchPlan getMatchPlan() {
+        RequestMatchPlan result = matchPlan;
+        if (result == null) {
+            // no lock is taken, since a plan is immutable and built only from this request as it now stands
+            result = new RequestMatchPlan(this);
+            matchPlan = result;
+        }
+        return result;
+    }
+    
+    /**
+     * Adds a listener to be told whenever this request is changed. A listener added more than once is told once for
+     * each time it was added, until it has been removed as many times.
+     * 
+     * @param listener The listener
+     */
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
+    }
+    
+    /**
+     * Removes one registration of a listener added by {@link #addChangeListener(ChangeListener)}.
+     * 
+     * @param listener The listener
+     */
+    public void removeChangeListener(ChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+    
+    private void changed() {
+        matchPlan = null;
+        for (ChangeListener listener : changeListeners) {
+            listener.requestChanged(this);
+        }
+    }
+    
 }
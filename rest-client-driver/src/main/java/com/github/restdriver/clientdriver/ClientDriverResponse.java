@@ -17,11 +17,14 @@ package com.github.restdriver.clientdriver;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.Validate;
 
 import com.github.restdriver.clientdriver.exception.ClientDriverResponseCreationException;
 
@@ -37,14 +40,21 @@ public final class ClientDriverResponse {
     
     private int status;
     private final byte[] content;
+    private final Path file;
     private String contentType;
     private final Map<String, String> headers;
     
     private long delayTime;
     private TimeUnit delayTimeUnit = TimeUnit.SECONDS;
     
+    private int chunkSize;
+    private long chunkPauseNanos;
+    private boolean chunked;
+    
     private long waitUntil;
     
+    private volatile int revision;
+    
     /**
      * Creates a new response with an empty body, a status code of 204 and
      * no Content-Type.
@@ -95,9 +105,35 @@ public final class ClientDriverResponse {
         this(convertInputStreamToByteArray(content), contentType);
     }
     
+    /**
+     * <p>Creates a new response whose body is the given file, with a status
+     * code of 200 and the given content-type.</p>
+     * <p>The file is sent straight from disk with a Content-Length each time
+     * the response is served, and is never loaded into the heap, so it may be
+     * arbitrarily large. It must exist and stay readable while the response is
+     * in use.</p>
+     * 
+     * @param file
+     *            The file containing the content of the response
+     * @param contentType
+     *            The content type
+     */
+    public ClientDriverResponse(Path file, String contentType) {
+        if (file == null || !Files.isRegularFile(file) || !Files.isReadable(file)) {
+            throw new ClientDriverResponseCreationException("unable to create client driver response from file " + file, null);
+        }
+        
+        this.status = DEFAULT_STATUS_CODE;
+        this.content = null;
+        this.file = file;
+        this.contentType = contentType;
+        this.headers = new HashMap<String, String>();
+    }
+    
     private ClientDriverResponse(byte[] content, String contentType) {
         this.status = statusCodeForContent(content);
         this.content = content;
+        this.file = null;
         
         if (content != null && content.length != 0) {
             this.contentType = contentType;
@@ -125,10 +161,13 @@ public final class ClientDriverResponse {
     }
     
     /**
-     * @return The content as a byte array
+     * @return The content as a byte array. For a response from a file this reads the whole file, which is not needed
+     *         to serve it.
      */
     public byte[] getContentAsBytes() {
-        if (content == null || content.length == 0) {
+        if (file != null) {
+            return readFile(file);
+        } else if (content == null || content.length == 0) {
             return null;
         } else {
             return content;
@@ -142,7 +181,22 @@ public final class ClientDriverResponse {
         if (getContentAsBytes() == null) {
             return "";
         } else {
-            return new String(content);
+            return new String(getContentAsBytes());
+        }
+    }
+    
+    /**
+     * @return The file the content is served from, or null if the content is held in memory
+     */
+    public Path getFile() {
+        return file;
+    }
+    
+    private static byte[] readFile(Path file) {
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new ClientDriverResponseCreationException("unable to read client driver response from file " + file, e);
         }
     }
     
@@ -154,13 +208,15 @@ public final class ClientDriverResponse {
      */
     public ClientDriverResponse withStatus(int withStatus) {
         status = withStatus;
+        revision++;
         return this;
     }
     
     /**
      * Modifies a ClientDriverRequest to specify some time to wait before
      * responding. This enables you to simulate slow services or networks, eg
-     * for testing timeout behaviour of your clients.
+     * for testing timeout behaviour of your clients. The wait is timed without
+     * holding a server thread, so many slow responses can be in flight at once.
      * 
      * @param delay
      *            How long to delay for.
@@ -175,6 +231,81 @@ public final class ClientDriverResponse {
         return this;
     }
     
+    /**
+     * Modifies a ClientDriverResponse to trickle its body out at the given
+     * rate, with a Content-Length. Any delay given to {@link #after(long, TimeUnit)}
+     * is then the time to first byte, and this governs the rest. The body is
+     * written without holding a server thread, so many throttled responses
+     * can be in flight at once.
+     * 
+     * @param bytesPerSecond
+     *            The rate to send the body at
+     * @return the object you called the method on, so you can chain these
+     *         calls.
+     */
+    public ClientDriverResponse withBandwidth(long bytesPerSecond) {
+        Validate.isTrue(bytesPerSecond > 0, "Bandwidth must be positive.");
+        
+        // twenty writes a second is smooth enough, unless the rate is so low that each write would be a single byte
+        this.chunkSize = (int) Math.min(Integer.MAX_VALUE, Math.max(1, bytesPerSecond / 20));
+        this.chunkPauseNanos = TimeUnit.SECONDS.toNanos(chunkSize) / bytesPerSecond;
+        this.chunked = false;
+        return this;
+    }
+    
+    /**
+     * Modifies a ClientDriverResponse to send its body using chunked transfer
+     * encoding, pausing between chunks. Any delay given to
+     * {@link #after(long, TimeUnit)} is then the time to first byte. The body
+     * is written without holding a server thread, so many chunked responses
+     * can be in flight at once.
+     * 
+     * @param size
+     *            The number of bytes in each chunk
+     * @param pause
+     *            How long to pause between chunks
+     * @param timeUnit
+     *            The time unit of the pause
+     * @return the object you called the method on, so you can chain these
+     *         calls.
+     */
+    public ClientDriverResponse inChunks(int size, long pause, TimeUnit timeUnit) {
+        Validate.isTrue(size > 0, "Chunk size must be positive.");
+        
+        this.chunkSize = size;
+        this.chunkPauseNanos = timeUnit.toNanos(pause);
+        this.chunked = true;
+        return this;
+    }
+    
+    /**
+     * @return whether the body is sent a piece at a time, by {@link #withBandwidth(long)} or {@link #inChunks(int, long, TimeUnit)}
+     */
+    public boolean isThrottled() {
+        return chunkSize > 0;
+    }
+    
+    /**
+     * @return the number of bytes of the body to send at a time, or 0 if it is sent all at once
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+    
+    /**
+     * @return the number of nanoseconds to pause between pieces of the body
+     */
+    public long getChunkPauseNanos() {
+        return chunkPauseNanos;
+    }
+    
+    /**
+     * @return whether the body is sent with chunked transfer encoding rather than a Content-Length
+     */
+    public boolean isChunked() {
+        return chunked;
+    }
+    
     /**
      * @return the amount of time to delay the response
      */
@@ -197,6 +328,14 @@ public final class ClientDriverResponse {
         return waitUntil > System.currentTimeMillis();
     }
     
+    /**
+     * @return the time, in milliseconds since the epoch, after which this response can no longer be matched, or 0 if
+     *         it can always be matched
+     */
+    public long getExpiryTime() {
+        return waitUntil;
+    }
+    
     /**
      * @return the status
      */
@@ -222,6 +361,7 @@ public final class ClientDriverResponse {
     @Deprecated
     public ClientDriverResponse withContentType(String withContentType) {
         this.contentType = withContentType;
+        revision++;
         return this;
     }
     
@@ -241,6 +381,7 @@ public final class ClientDriverResponse {
         } else {
             headers.put(name, value);
         }
+        revision++;
         return this;
     }
     
@@ -269,7 +410,17 @@ public final class ClientDriverResponse {
      * @return whether the response has a body
      */
     public boolean hasBody() {
-        return content != null && content.length != 0;
+        return file != null || (content != null && content.length != 0);
+    }
+    
+    /**
+     * Gets a number which changes whenever the status, content type or headers of this response are changed, so that
+     * anything derived from them knows when to derive them again.
+     * 
+     * @return The revision
+     */
+    public int getRevision() {
+        return revision;
     }
     
 }
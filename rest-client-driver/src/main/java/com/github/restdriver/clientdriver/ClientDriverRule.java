@@ -29,6 +29,7 @@ import org.slf4j.LoggerFactory;
 public class ClientDriverRule implements TestRule {
     
     private ClientDriver clientDriver;
+    private ClientDriverPool pool;
     private static final Logger LOGGER = LoggerFactory.getLogger(ClientDriverRequest.class);
     
     private static final long IMMEDIATELY = 0;
@@ -50,6 +51,26 @@ public class ClientDriverRule implements TestRule {
         clientDriver = new ClientDriverFactory().createClientDriver(port);
     }
     
+    /**
+     * Creates a new rule with a driver which receives its requests from a shared server, so no server is started.
+     * 
+     * @param server The shared server to receive requests from
+     */
+    public ClientDriverRule(SharedClientDriverServer server) {
+        clientDriver = new ClientDriverFactory().createClientDriver(server);
+    }
+    
+    /**
+     * Creates a new rule with a driver taken from a pool of started drivers. After the test the driver is verified and
+     * given back to the pool, rather than shut down.
+     * 
+     * @param pool The pool to take the driver from
+     */
+    public ClientDriverRule(ClientDriverPool pool) {
+        this.pool = pool;
+        clientDriver = pool.acquire();
+    }
+    
     protected ClientDriverRule(ClientDriver clientDriver) {
         this.clientDriver = clientDriver;
     }
@@ -152,7 +173,8 @@ public class ClientDriverRule implements TestRule {
     }
 
     /**
-     * Statement which evaluates the given Statement and shuts down the client after evaluation.
+     * Statement which evaluates the given Statement and shuts down the client, or gives it back to its pool, after
+     * evaluation.
      */
     private class ClientDriverStatement extends Statement {
         
@@ -178,7 +200,11 @@ public class ClientDriverRule implements TestRule {
                     throw assertionError;
                 }
             } finally {
-                clientDriver.shutdownQuietly();
+                if (pool != null) {
+                    pool.recycle(clientDriver);
+                } else {
+                    clientDriver.shutdownQuietly();
+                }
             }
         }
         
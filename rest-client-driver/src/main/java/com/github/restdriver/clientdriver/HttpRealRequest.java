@@ -16,68 +16,103 @@
 package com.github.restdriver.clientdriver;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.eclipse.jetty.util.MultiMap;
 import org.eclipse.jetty.util.UrlEncoded;
+import org.w3c.dom.Element;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.restdriver.XmlUtil;
 import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
+import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+/**
+ * A {@link RealRequest} backed by an incoming {@link HttpServletRequest}. Query parameters, headers and the body are
+ * only read from the servlet request the first time they are asked for, so a request rejected on its method or path
+ * costs no body I/O at all.
+ * 
+ * <p>The servlet request is only valid while it is being handled, so the handler calls {@link #detach(int)} before it
+ * finishes. After that everything is read from copies, and a body which was never read is only retained if it is
+ * small enough.</p>
+ * 
+ * <p>The decoded body, and its JSON or XML form, are likewise only produced the first time they are asked for and are
+ * then shared by every matcher and body capture which looks at this request.</p>
+ * 
+ * <p>Each expectation which rejects this request adds a {@link Rejection} to its trace, so that a failure report can
+ * say why it went unmatched. Only the first {@value #MAX_REJECTIONS} are kept.</p>
+ */
 public class HttpRealRequest implements RealRequest {
     
+    private static final int MAX_REJECTIONS = 32;
+    
+    private static final Function<Collection<String>, Object> FIRST_VALUE = new Function<Collection<String>, Object>() {
+        @Override
+        public Object apply(Collection<String> values) {
+            return Iterables.getFirst(values, null);
+        }
+    };
+    
+    private static final Function<Collection<String>, String> ALL_VALUES = new Function<Collection<String>, String>() {
+        @Override
+        public String apply(Collection<String> values) {
+            return Joiner.on(", ").join(values);
+        }
+    };
+    
     private final Method method;
     private final String path;
-    private final Multimap<String, String> params;
-    private final Map<String, Object> headers;
-    private final byte[] bodyContent;
     private final String bodyContentType;
+    private final String protocol;
+    private final int concurrentRequests;
+    private volatile HttpServletRequest request;
+    private volatile Multimap<String, String> params;
+    private volatile ImmutableListMultimap<String, String> headers;
+    private volatile byte[] bodyContent;
+    private volatile String bodyText;
+    private volatile Parsed<JsonNode> bodyJson;
+    private volatile Parsed<Element> bodyXml;
+    private List<Rejection> rejections;
     
     public HttpRealRequest(HttpServletRequest request) {
+        this(request, 1);
+    }
+    
+    /**
+     * Creates a request which arrived while other requests on the same connection were still being handled.
+     * 
+     * @param request
+     *            The servlet request
+     * @param concurrentRequests
+     *            The number of requests being handled on the connection when this one arrived, including itself
+     */
+    public HttpRealRequest(HttpServletRequest request, int concurrentRequests) {
+        this.request = request;
         this.path = request.getPathInfo();
-        this.method = Method.custom(request.getMethod().toUpperCase());
-        this.params = HashMultimap.create();
-        
-        if (request.getQueryString() != null) {
-            MultiMap<String> parameterMap = new MultiMap<String>();
-            UrlEncoded.decodeTo(request.getQueryString(), parameterMap, UTF_8);
-            for (Entry<String, String[]> paramEntry : parameterMap.toStringArrayMap().entrySet()) {
-                String[] values = paramEntry.getValue();
-                for (String value : values) {
-                    this.params.put(paramEntry.getKey(), value);
-                }
-            }
-        }
-        
-        headers = new HashMap<String, Object>();
-        Enumeration<String> headerNames = request.getHeaderNames();
-        if (headerNames != null) {
-            while (headerNames.hasMoreElements()) {
-                String headerName = headerNames.nextElement();
-                headers.put(headerName.toLowerCase(), request.getHeader(headerName));
-            }
-        }
-        
-        try {
-            this.bodyContent = IOUtils.toByteArray(request.getInputStream());
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read body of request", e);
-        }
-        
+        this.method = Method.custom(request.getMethod());
         this.bodyContentType = request.getContentType();
+        this.protocol = request.getProtocol();
+        this.concurrentRequests = concurrentRequests;
     }
     
     @Override
@@ -92,17 +127,100 @@ public class HttpRealRequest implements RealRequest {
     
     @Override
     public final Map<String, Collection<String>> getParams() {
-        return Collections.unmodifiableMap(params.asMap());
+        return Collections.unmodifiableMap(params().asMap());
     }
     
+    /**
+     * {@inheritDoc} Header names are lower-cased, and only the first value of each header is given.
+     * 
+     * @see #getHeaderValues(String)
+     */
     @Override
     public final Map<String, Object> getHeaders() {
-        return Collections.unmodifiableMap(headers);
+        return Collections.unmodifiableMap(Maps.transformValues(headers().asMap(), FIRST_VALUE));
     }
     
+    @Override
+    public final List<String> getHeaderValues(String name) {
+        return headers().get(name.toLowerCase(Locale.ENGLISH));
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws IllegalStateException
+     *             if this request has been detached without retaining its body
+     */
     @Override
     public final byte[] getBodyContent() {
-        return bodyContent;
+        
+        byte[] result = bodyContent;
+        
+        if (result == null) {
+            synchronized (this) {
+                if (bodyContent == null) {
+                    if (request == null) {
+                        throw new IllegalStateException("Body of request was not retained: " + method + " " + path);
+                    }
+                    bodyContent = readBody(Integer.MAX_VALUE);
+                }
+                result = bodyContent;
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws IllegalStateException
+     *             if this request has been detached without retaining its body
+     */
+    @Override
+    public final String getBodyText() {
+        
+        String result = bodyText;
+        
+        if (result == null) {
+            // a String is immutable, so publishing it through the volatile field needs no lock
+            result = new String(getBodyContent(), getCharset());
+            bodyText = result;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * {@inheritDoc} A body which is not JSON fails the same way each time it is asked for, without being parsed again.
+     */
+    @Override
+    public final JsonNode getBodyJson() {
+        
+        Parsed<JsonNode> result = bodyJson;
+        
+        if (result == null) {
+            result = parseJson(getBodyText());
+            bodyJson = result;
+        }
+        
+        return result.get();
+    }
+    
+    /**
+     * {@inheritDoc} A body which is not XML fails the same way each time it is asked for, without being parsed again.
+     */
+    @Override
+    public final Element getBodyXml() {
+        
+        Parsed<Element> result = bodyXml;
+        
+        if (result == null) {
+            result = parseXml(getBodyText());
+            bodyXml = result;
+        }
+        
+        return result.get();
     }
     
     @Override
@@ -110,6 +228,196 @@ public class HttpRealRequest implements RealRequest {
         return bodyContentType;
     }
     
+    /**
+     * @return The protocol the request was made with, for example "HTTP/1.1" or "HTTP/2.0"
+     */
+    public final String getProtocol() {
+        return protocol;
+    }
+    
+    /**
+     * @return The number of requests being handled on the same connection when this one arrived, including itself.
+     *         Only an HTTP/2 connection can carry more than one at a time, each on its own stream.
+     */
+    public final int getConcurrentRequests() {
+        return concurrentRequests;
+    }
+    
+    /**
+     * @return Why each expectation tried against this request rejected it, in the order they were tried
+     */
+    public final synchronized List<Rejection> getRejections() {
+        return rejections == null ? Collections.<Rejection> emptyList() : new ArrayList<Rejection>(rejections);
+    }
+    
+    final synchronized void addRejection(Rejection rejection) {
+        if (rejections == null) {
+            rejections = new ArrayList<Rejection>();
+        }
+        if (rejections.size() < MAX_REJECTIONS) {
+            rejections.add(rejection);
+        }
+    }
+    
+    /**
+     * Forgets why this request was rejected, once it has been matched and the reasons no longer matter.
+     */
+    public final synchronized void clearRejections() {
+        rejections = null;
+    }
+    
+    /**
+     * @return Whether the body of this request is still available, which it always is until the request is detached
+     */
+    public final boolean isBodyRetained() {
+        return bodyContent != null || request != null;
+    }
+    
+    /**
+     * Copies whatever has not yet been read from the servlet request, so that this request can outlive it. A body
+     * which has not been read is only kept if it is no longer than the given limit.
+     * 
+     * @param maxRetainedBodyLength
+     *            The length in bytes of the longest unread body to keep
+     */
+    public final synchronized void detach(int maxRetainedBodyLength) {
+        
+        if (request == null) {
+            return;
+        }
+        
+        params();
+        headers();
+        
+        if (bodyContent == null) {
+            bodyContent = readBody(maxRetainedBodyLength);
+        }
+        
+        request = null;
+    }
+    
+    private Multimap<String, String> params() {
+        
+        Multimap<String, String> result = params;
+        
+        if (result == null) {
+            synchronized (this) {
+                if (params == null) {
+                    params = parseParams(request.getQueryString());
+                }
+                result = params;
+            }
+        }
+        
+        return result;
+    }
+    
+    private ImmutableListMultimap<String, String> headers() {
+        
+        ImmutableListMultimap<String, String> result = headers;
+        
+        if (result == null) {
+            synchronized (this) {
+                if (headers == null) {
+                    headers = copyHeaders(request);
+                }
+                result = headers;
+            }
+        }
+        
+        return result;
+    }
+    
+    private static Multimap<String, String> parseParams(String queryString) {
+        
+        Multimap<String, String> result = HashMultimap.create();
+        
+        if (queryString != null) {
+            MultiMap<String> parameterMap = new MultiMap<String>();
+            UrlEncoded.decodeTo(queryString, parameterMap, UTF_8);
+            for (Entry<String, String[]> paramEntry : parameterMap.toStringArrayMap().entrySet()) {
+                String[] values = paramEntry.getValue();
+                for (String value : values) {
+                    result.put(paramEntry.getKey(), value);
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Copies every value of every header, keyed by lower-cased name so that each lookup is a single hash probe.
+     */
+    private static ImmutableListMultimap<String, String> copyHeaders(HttpServletRequest request) {
+        
+        ImmutableListMultimap.Builder<String, String> result = ImmutableListMultimap.builder();
+        
+        Enumeration<String> headerNames = request.getHeaderNames();
+        if (headerNames != null) {
+            while (headerNames.hasMoreElements()) {
+                String headerName = headerNames.nextElement();
+                Enumeration<String> values = request.getHeaders(headerName);
+                if (values != null) {
+                    while (values.hasMoreElements()) {
+                        result.put(headerName.toLowerCase(Locale.ENGLISH), values.nextElement());
+                    }
+                } else {
+                    String value = request.getHeader(headerName);
+                    if (value != null) {
+                        result.put(headerName.toLowerCase(Locale.ENGLISH), value);
+                    }
+                }
+            }
+        }
+        
+        return result.build();
+    }
+    
+    private static Parsed<JsonNode> parseJson(String json) {
+        try {
+            return new Parsed<JsonNode>(RealRequests.parseJson(json), null);
+            
+        } catch (RuntimeException e) {
+            return new Parsed<JsonNode>(null, e);
+            
+        }
+    }
+    
+    private static Parsed<Element> parseXml(String xml) {
+        try {
+            return new Parsed<Element>(XmlUtil.asXml(xml), null);
+            
+        } catch (RuntimeException e) {
+            return new Parsed<Element>(null, e);
+            
+        }
+    }
+    
+    /**
+     * Reads the body, giving null without buffering it all if it turns out to be longer than the limit.
+     */
+    private byte[] readBody(int maxLength) {
+        
+        if (maxLength < Integer.MAX_VALUE && request.getContentLength() > maxLength) {
+            return null;
+        }
+        
+        try {
+            InputStream input = request.getInputStream();
+            
+            if (maxLength == Integer.MAX_VALUE) {
+                return IOUtils.toByteArray(input);
+            }
+            
+            byte[] result = IOUtils.toByteArray(new BoundedInputStream(input, maxLength + 1L));
+            return result.length > maxLength ? null : result;
+            
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read body of request", e);
+        }
+    }
+    
     /**
      * toString.
      * 
@@ -118,14 +426,38 @@ public class HttpRealRequest implements RealRequest {
     @Override
     public String toString() {
         
-        String paramsJoined = Joiner.on(",").withKeyValueSeparator("=").join(params.asMap());
-        String headersJoined = Joiner.on(",").withKeyValueSeparator(": ").join(headers);
+        String paramsJoined = Joiner.on(",").withKeyValueSeparator("=").join(params().asMap());
+        String headersJoined = Joiner.on(",").withKeyValueSeparator(": ").join(Maps.transformValues(headers().asMap(), ALL_VALUES));
+        String body = isBodyRetained() ? getBodyText() : "<not retained>";
         
         return "HttpRealRequest: "
                 + method + " " + path + "; "
                 + "PARAMS: [" + paramsJoined + "]; "
                 + "HEADERS: [" + headersJoined + "]; "
                 + "CONTENT TYPE " + bodyContentType + "; "
-                + "BODY " + new String(bodyContent) + ";";
+                + "BODY " + body + ";";
     }
+    
+    /**
+     * The outcome of parsing the body, which is either a value or the exception to throw for it.
+     */
+    private static final class Parsed<T> {
+        
+        private final T value;
+        private final RuntimeException failure;
+        
+        Parsed(T value, RuntimeException failure) {
+            this.value = value;
+            this.failure = failure;
+        }
+        
+        T get() {
+            if (failure != null) {
+                throw failure;
+            }
+            return value;
+        }
+        
+    }
+    
 }
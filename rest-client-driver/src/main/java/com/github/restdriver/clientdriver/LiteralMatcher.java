@@ -0,0 +1,37 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver;
+
+import org.hamcrest.core.IsEqual;
+
+/**
+ * An {@link IsEqual} matcher for a string which remembers the string, so that matching against it can be compiled
+ * into a plain comparison.
+ */
+final class LiteralMatcher extends IsEqual<String> {
+    
+    private final String value;
+    
+    LiteralMatcher(String value) {
+        super(value);
+        this.value = value;
+    }
+    
+    String getValue() {
+        return value;
+    }
+    
+}
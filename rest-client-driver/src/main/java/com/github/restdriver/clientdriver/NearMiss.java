@@ -0,0 +1,106 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An expectation which a request did not match, with how close it came. Closeness is the number of the expected
+ * request's checks which the actual request passed, so an expectation with the right method and path but the wrong
+ * body is nearer than one with the wrong path.
+ */
+public final class NearMiss {
+    
+    private final ClientDriverExpectation expectation;
+    private final int passedChecks;
+    private final int totalChecks;
+    private final List<Rejection> rejections;
+    
+    private NearMiss(ClientDriverExpectation expectation, int totalChecks, List<Rejection> rejections) {
+        this.expectation = expectation;
+        this.passedChecks = totalChecks - rejections.size();
+        this.totalChecks = totalChecks;
+        this.rejections = Collections.unmodifiableList(rejections);
+    }
+    
+    /**
+     * Finds the expectations which a request came closest to matching. Every check of every expectation is run, so
+     * this is only meant for reporting a failure.
+     * 
+     * @param realRequest
+     *            The request which was not matched
+     * @param expectations
+     *            The expectations to rank
+     * @param limit
+     *            The most expectations to return
+     * @return The nearest expectations, nearest first, where those equally near keep the order they were given in
+     */
+    public static List<NearMiss> rank(RealRequest realRequest, Collection<ClientDriverExpectation> expectations, int limit) {
+        
+        List<NearMiss> nearest = new ArrayList<NearMiss>(Math.min(limit, expectations.size()));
+        
+        for (ClientDriverExpectation expectation : expectations) {
+            RequestMatchPlan plan = expectation.getPair().getRequest().getMatchPlan();
+            NearMiss miss = new NearMiss(expectation, plan.getCheckCount(), plan.rejectionsOf(realRequest));
+            
+            // keep only the nearest few in order, which is cheaper than sorting them all when there are many
+            int position = nearest.size();
+            while (position > 0 && nearest.get(position - 1).passedChecks < miss.passedChecks) {
+                position--;
+            }
+            if (position < limit) {
+                if (nearest.size() == limit) {
+                    nearest.remove(limit - 1);
+                }
+                nearest.add(position, miss);
+            }
+        }
+        
+        return nearest;
+    }
+    
+    /**
+     * @return The expectation which was missed
+     */
+    public ClientDriverExpectation getExpectation() {
+        return expectation;
+    }
+    
+    /**
+     * @return The number of the expected request's checks which the actual request passed
+     */
+    public int getPassedChecks() {
+        return passedChecks;
+    }
+    
+    /**
+     * @return The number of checks the expected request has
+     */
+    public int getTotalChecks() {
+        return totalChecks;
+    }
+    
+    /**
+     * @return Why each failing check rejected the request
+     */
+    public List<Rejection> getRejections() {
+        return rejections;
+    }
+    
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+import org.hamcrest.Description;
+import org.hamcrest.TypeSafeMatcher;
+
+/**
+ * A path with variables in it, such as <code>/users/{id}/orders/{orderId}</code>. Each variable stands for one whole,
+ * non-empty segment of the path, and every other segment must match exactly.
+ * 
+ * <p>Matching compares the segments in turn without any regular expressions, and a handler can route requests to
+ * templated expectations through a tree of their segments, so the cost depends on the length of the path rather than
+ * on how many expectations there are.</p>
+ */
+public final class PathTemplate extends TypeSafeMatcher<String> {
+    
+    private final String template;
+    private final List<String> literalSegments;
+    private final List<String> variableNames;
+    
+    /**
+     * Creates a template.
+     * 
+     * @param template
+     *            The path, with each variable segment written as <code>{name}</code>
+     */
+    public PathTemplate(String template) {
+        Validate.notNull(template, "Path template is not set.");
+        
+        List<String> literals = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        
+        for (String segment : template.split("/", -1)) {
+            if (segment.startsWith("{") && segment.endsWith("}") && segment.length() > 2) {
+                literals.add(null);
+                names.add(segment.substring(1, segment.length() - 1));
+            } else {
+                Validate.isTrue(segment.indexOf('{') < 0 && segment.indexOf('}') < 0, "A variable in a path template must be a whole segment: " + template);
+                literals.add(segment);
+                names.add(null);
+            }
+        }
+        
+        this.template = template;
+        this.literalSegments = Collections.unmodifiableList(literals);
+        this.variableNames = Collections.unmodifiableList(names);
+    }
+    
+    /**
+     * @return The template this was created from
+     */
+    public String getTemplate() {
+        return template;
+    }
+    
+    /**
+     * @return The text of each segment of the template, or null where the segment is a variable
+     */
+    public List<String> getLiteralSegments() {
+        return literalSegments;
+    }
+    
+    /**
+     * Extracts the values of the variables from a path.
+     * 
+     * @param path
+     *            The path of a request
+     * @return The value of each variable, in the order they appear in the template, or null if the path does not
+     *         match the template
+     */
+    public Map<String, String> getVariables(String path) {
+        
+        String[] segments = path.split("/", -1);
+        if (!matchesSegments(segments)) {
+            return null;
+        }
+        
+        Map<String, String> variables = new LinkedHashMap<String, String>();
+        for (int i = 0; i < segments.length; i++) {
+            if (variableNames.get(i) != null) {
+                variables.put(variableNames.get(i), segments[i]);
+            }
+        }
+        return variables;
+    }
+    
+    @Override
+    public void describeTo(Description description) {
+        description.appendText("A path matching the template: " + template);
+    }
+    
+    @Override
+    protected boolean matchesSafely(String item) {
+        return matchesSegments(item.split("/", -1));
+    }
+    
+    private boolean matchesSegments(String[] segments) {
+        
+        if (segments.length != literalSegments.size()) {
+            return false;
+        }
+        
+        for (int i = 0; i < segments.length; i++) {
+            String literal = literalSegments.get(i);
+            if (literal != null ? !literal.equals(segments[i]) : segments[i].isEmpty()) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+}
@@ -15,9 +15,15 @@
  */
 package com.github.restdriver.clientdriver;
 
+import java.nio.charset.Charset;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
+import org.w3c.dom.Element;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.restdriver.XmlUtil;
 import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
 
 public interface RealRequest {
@@ -34,4 +40,48 @@ public interface RealRequest {
     
     byte[] getBodyContent();
     
+    /**
+     * Gets every value of a header, in the order they were received. A header value may be a single object, or an
+     * {@link java.util.Enumeration} or {@link Collection} of them.
+     * 
+     * @param name
+     *            The name of the header, in any case
+     * @return The values of the header, or an empty list if it is not present
+     */
+    default List<String> getHeaderValues(String name) {
+        return RealRequests.headerValues(getHeaders(), name);
+    }
+    
+    /**
+     * @return The charset given in the Content-Type of the body, or UTF-8 if there is none
+     */
+    default Charset getCharset() {
+        return RealRequests.charsetOf(getBodyContentType());
+    }
+    
+    /**
+     * @return The body decoded using {@link #getCharset()}
+     */
+    default String getBodyText() {
+        return RealRequests.decode(getBodyContent(), getCharset());
+    }
+    
+    /**
+     * @return The body parsed as JSON
+     * @throws com.github.restdriver.exception.RuntimeAssertionFailure
+     *             if the body is not JSON
+     */
+    default JsonNode getBodyJson() {
+        return RealRequests.parseJson(getBodyText());
+    }
+    
+    /**
+     * @return The root element of the body parsed as XML
+     * @throws com.github.restdriver.exception.RuntimeXmlParseException
+     *             if the body is not XML
+     */
+    default Element getBodyXml() {
+        return XmlUtil.asXml(getBodyText());
+    }
+    
 }
@@ -0,0 +1,121 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.jetty.http.MimeTypes;
+import org.w3c.dom.Element;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.restdriver.XmlUtil;
+import com.github.restdriver.exception.RuntimeAssertionFailure;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Works out the decoded and parsed body and the header values of a {@link RealRequest} from its basic methods. These
+ * are the defaults behind {@link RealRequest}, which {@link HttpRealRequest} overrides to keep what it has worked out.
+ */
+final class RealRequests {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    
+    private RealRequests() {
+    }
+    
+    /**
+     * Finds every value of a header, whatever the case of its name. A value may be a single object, or an
+     * {@link Enumeration} or {@link Collection} of them.
+     */
+    @SuppressWarnings("unchecked")
+    static List<String> headerValues(Map<String, Object> headers, String name) {
+        
+        List<String> values = new ArrayList<String>();
+        
+        if (headers == null) {
+            return values;
+        }
+        
+        for (Entry<String, Object> header : headers.entrySet()) {
+            if (!header.getKey().equalsIgnoreCase(name)) {
+                continue;
+            }
+            
+            Object value = header.getValue();
+            if (value instanceof Enumeration) {
+                for (Object element : Collections.list((Enumeration<Object>) value)) {
+                    values.add(String.valueOf(element));
+                }
+            } else if (value instanceof Collection) {
+                for (Object element : (Collection<Object>) value) {
+                    values.add(String.valueOf(element));
+                }
+            } else if (value != null) {
+                values.add(String.valueOf(value));
+            }
+        }
+        
+        return values;
+    }
+    
+    static Charset charsetOf(String contentType) {
+        
+        String charsetName = contentType != null ? MimeTypes.getCharsetFromContentType(contentType) : null;
+        
+        if (charsetName != null) {
+            try {
+                return Charset.forName(charsetName);
+            } catch (IllegalCharsetNameException e) {
+                return UTF_8;
+            } catch (UnsupportedCharsetException e) {
+                return UTF_8;
+            }
+        }
+        
+        return UTF_8;
+    }
+    
+    static String decode(byte[] body, Charset charset) {
+        return body == null ? null : new String(body, charset);
+    }
+    
+    /**
+     * @throws RuntimeAssertionFailure
+     *             if the text is not JSON, just as {@link com.github.restdriver.matchers.HasJsonWhich} does
+     */
+    static JsonNode parseJson(String json) {
+        try {
+            return MAPPER.readTree(json);
+            
+        } catch (IOException e) {
+            throw new RuntimeAssertionFailure("Failed to create JsonNode", e);
+            
+        }
+    }
+    
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver;
+
+import org.slf4j.helpers.MessageFormatter;
+
+/**
+ * Why an expected request did not match an actual one. Only the pieces of the reason are kept when the rejection
+ * happens; they are formatted into a message the first time {@link #getReason()} is called, so a rejection which is
+ * never reported costs next to nothing.
+ */
+public final class Rejection {
+    
+    private final String check;
+    private final String template;
+    private final Object[] arguments;
+    private ClientDriverRequest expectedRequest;
+    private volatile String reason;
+    
+    Rejection(String check, String template, Object... arguments) {
+        this.check = check;
+        this.template = template;
+        this.arguments = arguments;
+    }
+    
+    /**
+     * @return The expected request which was not matched
+     */
+    public ClientDriverRequest getExpectedRequest() {
+        return expectedRequest;
+    }
+    
+    void setExpectedRequest(ClientDriverRequest expectedRequest) {
+        this.expectedRequest = expectedRequest;
+    }
+    
+    /**
+     * @return The name of the check which failed, such as "path" or "body"
+     */
+    public String getCheck() {
+        return check;
+    }
+    
+    /**
+     * @return Why the check failed
+     */
+    public String getReason() {
+        String result = reason;
+        if (result == null) {
+            result = MessageFormatter.arrayFormat(template, arguments).getMessage();
+            reason = result;
+        }
+        return result;
+    }
+    
+    @Override
+    public String toString() {
+        return "REJECTED on " + check + ": " + getReason();
+    }
+    
+}
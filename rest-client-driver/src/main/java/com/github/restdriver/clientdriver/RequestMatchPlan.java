@@ -0,0 +1,575 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.hamcrest.Matcher;
+import org.hamcrest.StringDescription;
+import org.hamcrest.core.IsAnything;
+import org.hamcrest.core.IsEqual;
+import org.hamcrest.core.StringContains;
+import org.hamcrest.core.StringEndsWith;
+import org.hamcrest.core.StringStartsWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.restdriver.matchers.HasJsonWhich;
+import com.github.restdriver.matchers.HasXmlWhich;
+import com.github.restdriver.matchers.MatchesRegex;
+
+/**
+ * A {@link ClientDriverRequest} compiled into an immutable list of checks. Literal expectations become plain string
+ * comparisons, and the checks run cheapest first so that most requests are rejected before any Hamcrest matcher or
+ * the body is looked at. The body is always checked last.
+ * 
+ * <p>Each check counts the requests it rejects, which gives a profile of why requests did not match. The reason for a
+ * rejection is only captured as its parts, and is formatted when a failure report asks for it or the rejection is
+ * chosen to be logged.</p>
+ */
+final class RequestMatchPlan {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestMatchPlan.class);
+    
+    private static final int COST_REFERENCE = 0;
+    private static final int COST_LITERAL = 1;
+    private static final int COST_LOOKUP = 2;
+    // a path matcher costs more than a lookup, but it rejects far more requests than any header, so it runs first
+    private static final int COST_PATH_MATCHER = COST_LOOKUP;
+    private static final int COST_LITERAL_COLLECTION = 3;
+    private static final int COST_MATCHER = 5;
+    private static final int COST_MATCHER_COLLECTION = 6;
+    private static final int COST_BODY = 10;
+    
+    private static final Comparator<Check> BY_COST = new Comparator<Check>() {
+        @Override
+        public int compare(Check first, Check second) {
+            return Integer.compare(first.cost, second.cost);
+        }
+    };
+    
+    // matchers which only compare against what they were made with, so nothing they do depends on what they saw before
+    private static final Set<Class<?>> STATELESS_MATCHERS = new HashSet<Class<?>>(Arrays.<Class<?>> asList(
+            LiteralMatcher.class, PathTemplate.class, MatchesRegex.class, IsEqual.class, IsAnything.class,
+            StringContains.class, StringStartsWith.class, StringEndsWith.class));
+    
+    private final ClientDriverRequest request;
+    private final List<Check> checks;
+    private final boolean concurrent;
+    
+    /**
+     * Compiles a plan from the request as it currently stands.
+     * 
+     * @param request
+     *            The expected request
+     */
+    RequestMatchPlan(ClientDriverRequest request) {
+        
+        this.request = request;
+        
+        List<Check> compiled = new ArrayList<Check>();
+        
+        compiled.add(new MethodCheck(request.getMethod()));
+        
+        if (request.getLiteralPath() != null) {
+            compiled.add(new LiteralPathCheck(request.getLiteralPath()));
+        } else {
+            compiled.add(new PathCheck(request.getPath()));
+        }
+        
+        if (!request.getAnyParams()) {
+            compiled.add(new ParamsCheck(request.getParams()));
+        }
+        
+        if (!request.getExcludedHeaders().isEmpty()) {
+            compiled.add(new ExcludedHeadersCheck(request.getExcludedHeaders()));
+        }
+        
+        for (Entry<String, Matcher<? extends String>> header : request.getHeaders().entrySet()) {
+            compiled.add(new HeaderCheck(header.getKey(), header.getValue()));
+        }
+        
+        if (request.getBodyContentType() != null) {
+            compiled.add(new ContentTypeCheck(request.getBodyContentType()));
+        }
+        
+        if (request.getBodyContentMatcher() != null) {
+            compiled.add(new BodyCheck(request.getBodyContentMatcher()));
+        }
+        
+        // the sort is stable, so checks of equal cost keep the order above
+        Collections.sort(compiled, BY_COST);
+        checks = Collections.unmodifiableList(compiled);
+        concurrent = hasOnlyStatelessMatchers(request);
+    }
+    
+    private static boolean hasOnlyStatelessMatchers(ClientDriverRequest request) {
+        
+        List<Matcher<? extends String>> matchers = new ArrayList<Matcher<? extends String>>();
+        
+        if (request.getLiteralPath() == null) {
+            matchers.add(request.getPath());
+        }
+        if (!request.getAnyParams()) {
+            for (Collection<Matcher<? extends String>> values : request.getParams().values()) {
+                matchers.addAll(values);
+            }
+        }
+        matchers.addAll(request.getHeaders().values());
+        if (request.getBodyContentType() != null) {
+            matchers.add(request.getBodyContentType());
+        }
+        if (request.getBodyContentMatcher() != null) {
+            matchers.add(request.getBodyContentMatcher());
+        }
+        
+        for (Matcher<? extends String> matcher : matchers) {
+            if (!STATELESS_MATCHERS.contains(matcher.getClass())) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Runs the checks in order, stopping at the first which fails. The rejection is added to the trace of an
+     * {@link HttpRealRequest}, and logged if INFO is enabled and it is sampled.
+     * 
+     * @param realRequest
+     *            The actual request
+     * @param logSampleRate
+     *            The fraction of rejections to log, from 0 to 1
+     * @return True if every check passed
+     */
+    boolean matches(RealRequest realRequest, double logSampleRate) {
+        
+        for (Check check : checks) {
+            Rejection rejection = check.check(realRequest);
+            if (rejection != null) {
+                check.rejections.increment();
+                rejection.setExpectedRequest(request);
+                
+                if (realRequest instanceof HttpRealRequest) {
+                    ((HttpRealRequest) realRequest).addRejection(rejection);
+                }
+                
+                if (LOGGER.isInfoEnabled() && isSampled(logSampleRate)) {
+                    LOGGER.info("({} {}) {}", realRequest.getMethod(), realRequest.getPath(), rejection);
+                }
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Runs the checks in order, stopping at the first which fails, without recording, counting or logging the
+     * rejection. This is for requests which have already been handled and had their rejections recorded then.
+     * 
+     * @param realRequest
+     *            The actual request
+     * @return True if every check passed
+     */
+    boolean matchesQuietly(RealRequest realRequest) {
+        
+        for (Check check : checks) {
+            if (check.check(realRequest) != null) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Runs every check, without stopping at one which fails and without counting or logging the rejections. This is
+     * for saying how close a request came to matching once something has already failed, and is too slow for matching.
+     * 
+     * @param realRequest
+     *            The actual request
+     * @return Why each failing check rejected the request, which is empty if it matches
+     */
+    List<Rejection> rejectionsOf(RealRequest realRequest) {
+        
+        List<Rejection> rejections = new ArrayList<Rejection>();
+        
+        for (Check check : checks) {
+            Rejection rejection;
+            try {
+                rejection = check.check(realRequest);
+            } catch (RuntimeException e) {
+                // a body which cannot be parsed, or was not retained, is a mismatch here rather than a second failure
+                rejection = check.reject("{}", e.getMessage());
+            }
+            if (rejection != null) {
+                rejection.setExpectedRequest(request);
+                rejections.add(rejection);
+            }
+        }
+        
+        return rejections;
+    }
+    
+    /**
+     * @return True if this plan only uses matchers which are known to be safe to run on several threads at once
+     */
+    boolean isConcurrent() {
+        return concurrent;
+    }
+    
+    /**
+     * @return The number of checks in this plan
+     */
+    int getCheckCount() {
+        return checks.size();
+    }
+    
+    private static boolean isSampled(double logSampleRate) {
+        return logSampleRate >= 1 || logSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < logSampleRate;
+    }
+    
+    /**
+     * @return The number of requests each check has rejected, keyed by the name of the check, in the order they run
+     */
+    Map<String, Long> getRejectionCounts() {
+        
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        
+        for (Check check : checks) {
+            counts.put(check.name, check.rejections.sum());
+        }
+        
+        return counts;
+    }
+    
+    private static String literalValue(Matcher<? extends String> matcher) {
+        return matcher instanceof LiteralMatcher ? ((LiteralMatcher) matcher).getValue() : null;
+    }
+    
+    /**
+     * A single predicate on a request.
+     */
+    private abstract static class Check {
+        
+        private final String name;
+        private final int cost;
+        private final LongAdder rejections = new LongAdder();
+        
+        Check(String name, int cost) {
+            this.name = name;
+            this.cost = cost;
+        }
+        
+        /**
+         * @return Why the request was rejected, or null if it passed
+         */
+        abstract Rejection check(RealRequest realRequest);
+        
+        Rejection reject(String template, Object... arguments) {
+            return new Rejection(name, template, arguments);
+        }
+        
+    }
+    
+    private static final class MethodCheck extends Check {
+        
+        private final ClientDriverRequest.Method method;
+        
+        MethodCheck(ClientDriverRequest.Method method) {
+            super("method", COST_REFERENCE);
+            this.method = method;
+        }
+        
+        @Override
+        Rejection check(RealRequest realRequest) {
+            if (!method.equals(realRequest.getMethod())) {
+                return reject("expected {} != {}", method, realRequest.getMethod());
+            }
+            return null;
+        }
+        
+    }
+    
+    private static final class LiteralPathCheck extends Check {
+        
+        private final String path;
+        
+        LiteralPathCheck(String path) {
+            super("path", COST_LITERAL);
+            this.path = path;
+        }
+        
+        @Override
+        Rejection check(RealRequest realRequest) {
+            if (!path.equals(realRequest.getPath())) {
+                return reject("expected {} != {}", path, realRequest.getPath());
+            }
+            return null;
+        }
+        
+    }
+    
+    private static final class PathCheck extends Check {
+        
+        private final Matcher<? extends String> path;
+        
+        PathCheck(Matcher<? extends String> path) {
+            super("path", COST_PATH_MATCHER);
+            this.path = path;
+        }
+        
+        @Override
+        Rejection check(RealRequest realRequest) {
+            if (!path.matches(realRequest.getPath())) {
+                return reject("expected {} != {}", path, realRequest.getPath());
+            }
+            return null;
+        }
+        
+    }
+    
+    private static final class ParamsCheck extends Check {
+        
+        private final Map<String, Collection<Matcher<? extends String>>> params;
+        
+        ParamsCheck(Map<String, Collection<Matcher<? extends String>>> params) {
+            super("params", allLiteral(params) ? COST_LITERAL_COLLECTION : COST_MATCHER_COLLECTION);
+            
+            Map<String, Collection<Matcher<? extends String>>> copy = new LinkedHashMap<String, Collection<Matcher<? extends String>>>();
+            for (Entry<String, Collection<Matcher<? extends String>>> param : params.entrySet()) {
+                copy.put(param.getKey(), new ArrayList<Matcher<? extends String>>(param.getValue()));
+            }
+            this.params = copy;
+        }
+        
+        private static boolean allLiteral(Map<String, Collection<Matcher<? extends String>>> params) {
+            for (Collection<Matcher<? extends String>> values : params.values()) {
+                for (Matcher<? extends String> value : values) {
+                    if (literalValue(value) == null) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        
+        @Override
+        Rejection check(RealRequest realRequest) {
+            
+            Map<String, Collection<String>> actualParams = realRequest.getParams();
+            
+            if (actualParams.size() != params.size()) {
+                return reject("number of params: expected {} != {}", params.size(), actualParams.size());
+            }
+            
+            for (Entry<String, Collection<Matcher<? extends String>>> expected : params.entrySet()) {
+                
+                Collection<String> actualValues = actualParams.get(expected.getKey());
+                
+                if (actualValues == null || actualValues.isEmpty()) {
+                    return reject("missing param key: expected {} = {}", expected.getKey(), expected.getValue());
+                }
+                
+                if (expected.getValue().size() != actualValues.size()) {
+                    return reject("number of values for param '{}': expected {} != {}", expected.getKey(), expected.getValue().size(), actualValues.size());
+                }
+                
+                for (Matcher<? extends String> expectedValue : expected.getValue()) {
+                    if (!containsMatch(actualValues, expectedValue)) {
+                        return reject("unmatched params key: expected {} = {}", expected.getKey(), expectedValue);
+                    }
+                }
+            }
+            
+            return null;
+        }
+        
+        private static boolean containsMatch(Collection<String> actualValues, Matcher<? extends String> expectedValue) {
+            
+            String literal = literalValue(expectedValue);
+            if (literal != null) {
+                return actualValues.contains(literal);
+            }
+            
+            for (String actualValue : actualValues) {
+                if (expectedValue.matches(actualValue)) {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+        
+    }
+    
+    private static final class ExcludedHeadersCheck extends Check {
+        
+        private final List<String> excludedHeaders;
+        
+        ExcludedHeadersCheck(Set<String> excludedHeaders) {
+            super("excluded headers", COST_LOOKUP);
+            this.excludedHeaders = new ArrayList<String>(excludedHeaders);
+        }
+        
+        @Override
+        Rejection check(RealRequest realRequest) {
+            
+            for (String excludedHeader : excludedHeaders) {
+                if (!realRequest.getHeaderValues(excludedHeader).isEmpty()) {
+                    return reject("expected no {} header", excludedHeader);
+                }
+            }
+            
+            return null;
+        }
+        
+    }
+    
+    private static final class HeaderCheck extends Check {
+        
+        private final String headerName;
+        private final Matcher<? extends String> value;
+        private final String literalValue;
+        
+        HeaderCheck(String headerName, Matcher<? extends String> value) {
+            super("header " + headerName, literalValue(value) != null ? COST_LITERAL_COLLECTION : COST_MATCHER_COLLECTION);
+            this.headerName = headerName;
+            this.value = value;
+            this.literalValue = literalValue(value);
+        }
+        
+        @Override
+        Rejection check(RealRequest realRequest) {
+            
+            for (String actualValue : realRequest.getHeaderValues(headerName)) {
+                if (literalValue != null ? literalValue.equals(actualValue) : value.matches(actualValue)) {
+                    return null;
+                }
+            }
+            
+            return reject("missing header: expected {} = {}", headerName, value);
+        }
+        
+    }
+    
+    private static final class ContentTypeCheck extends Check {
+        
+        private final Matcher<? extends String> contentType;
+        
+        ContentTypeCheck(Matcher<? extends String> contentType) {
+            super("content type", COST_MATCHER);
+            this.contentType = contentType;
+        }
+        
+        @Override
+        Rejection check(RealRequest realRequest) {
+            
+            String actualContentType = realRequest.getBodyContentType();
+            if (actualContentType == null) {
+                return reject("expected {}, actual none", contentType);
+            }
+            
+            // this is needed because clients have a habit of putting
+            // "text/html; charset=UTF-8" when you only ask for "text/html".
+            if (actualContentType.contains(";")) {
+                actualContentType = actualContentType.substring(0, actualContentType.indexOf(';'));
+            }
+            
+            if (!contentType.matches(actualContentType)) {
+                return reject("expected {}, actual {}", contentType, actualContentType);
+            }
+            
+            return null;
+        }
+        
+    }
+    
+    private static final class BodyCheck extends Check {
+        
+        private final Matcher<? extends String> body;
+        
+        BodyCheck(Matcher<? extends String> body) {
+            super("body", COST_BODY);
+            this.body = body;
+        }
+        
+        @Override
+        Rejection check(RealRequest realRequest) {
+            
+            // structured matchers are given the parsed body the request holds, rather than each parsing the text again
+            Matcher<?> matcher;
+            Object actualContent;
+            
+            if (body instanceof HasJsonWhich) {
+                matcher = ((HasJsonWhich) body).getJsonMatcher();
+                actualContent = realRequest.getBodyJson();
+            } else if (body instanceof HasXmlWhich) {
+                matcher = ((HasXmlWhich) body).getXmlMatcher();
+                actualContent = realRequest.getBodyXml();
+            } else {
+                matcher = body;
+                actualContent = realRequest.getBodyText();
+            }
+            
+            if (!matcher.matches(actualContent)) {
+                return reject("Expected {}", new MismatchDescription(matcher, actualContent));
+            }
+            
+            return null;
+        }
+        
+    }
+    
+    /**
+     * Describes a body mismatch only when it is formatted, since the matcher may have to look through the body again
+     * to say what was wrong with it.
+     */
+    private static final class MismatchDescription {
+        
+        private final Matcher<?> matcher;
+        private final Object actualContent;
+        
+        MismatchDescription(Matcher<?> matcher, Object actualContent) {
+            this.matcher = matcher;
+            this.actualContent = actualContent;
+        }
+        
+        @Override
+        public String toString() {
+            StringDescription description = new StringDescription();
+            matcher.describeTo(description);
+            description.appendText(" ");
+            matcher.describeMismatch(actualContent, description);
+            return description.toString();
+        }
+        
+    }
+    
+}
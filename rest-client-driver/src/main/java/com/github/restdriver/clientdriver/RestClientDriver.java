@@ -16,13 +16,14 @@
 package com.github.restdriver.clientdriver;
 
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import org.hamcrest.Matcher;
 
+import com.github.restdriver.clientdriver.capture.AwaitableBodyCapture;
 import com.github.restdriver.clientdriver.capture.BodyCapture;
-import com.github.restdriver.clientdriver.capture.LatchBodyCapture;
 import com.github.restdriver.clientdriver.exception.ClientDriverInternalException;
 
 /**
@@ -65,6 +66,19 @@ public final class RestClientDriver {
         return new ClientDriverRequest(path);
     }
     
+    /**
+     * Creates a new {@link ClientDriverRequest} object for a templated path, such as <code>/users/{id}</code>. The
+     * values of the variables in a matched request are given by {@link ClientDriverRequest#getPathVariables(RealRequest)}.
+     * 
+     * @param template
+     *            The template of the paths to match
+     * @return The newly created request
+     * @see PathTemplate
+     */
+    public static ClientDriverRequest onRequestToTemplate(String template) {
+        return new ClientDriverRequest(new PathTemplate(template));
+    }
+    
     /**
      * Creates a new {@link ClientDriverResponse} object.
      * 
@@ -104,6 +118,20 @@ public final class RestClientDriver {
         return new ClientDriverResponse(content, contentType);
     }
     
+    /**
+     * Creates a new {@link ClientDriverResponse} object whose content is served from a file without being loaded
+     * into memory.
+     * 
+     * @param file
+     *            The file containing the content to return
+     * @param contentType
+     *            The content-type of the response
+     * @return The newly created response
+     */
+    public static ClientDriverResponse giveResponseFromFile(Path file, String contentType) {
+        return new ClientDriverResponse(file, contentType);
+    }
+    
     /**
      * Creates a new {@link ClientDriverResponse} object with no content.
      * 
@@ -114,17 +142,17 @@ public final class RestClientDriver {
     }
     
     /**
-     * Waits for specified time for populated {@link BodyCapture} object.
+     * Waits for specified time for populated {@link BodyCapture} object. Any {@link AwaitableBodyCapture}, which
+     * includes all the captures provided, is woken as soon as its body is set; any other capture is polled.
      * 
      * @param bodyCapture The capture to wait for.
      * @param time The number of units (given in timeUnit) to wait for.
      * @param timeUnit The unit
      */
     public static void waitFor(BodyCapture<?> bodyCapture, long time, TimeUnit timeUnit) {
-        if (bodyCapture instanceof LatchBodyCapture) {
+        if (bodyCapture instanceof AwaitableBodyCapture) {
             try {
-                ((LatchBodyCapture<?>) bodyCapture).getLatch().await(time,
-                        timeUnit);
+                ((AwaitableBodyCapture<?>) bodyCapture).await(time, timeUnit);
             } catch (InterruptedException e) {
                 throw new ClientDriverInternalException("Interrupted waiting for capture", e);
             }
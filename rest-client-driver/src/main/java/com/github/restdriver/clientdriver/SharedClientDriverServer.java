@@ -0,0 +1,189 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import com.github.restdriver.clientdriver.exception.ClientDriverInternalException;
+import com.github.restdriver.clientdriver.exception.ClientDriverSetupException;
+import com.github.restdriver.clientdriver.jetty.ClientDriverJettyHandler;
+import com.github.restdriver.clientdriver.jetty.ServerSettings;
+
+/**
+ * One long-lived Jetty server which many client drivers share, so that creating a driver costs no more than creating
+ * its handler. Each driver is given a path prefix of its own, which is part of its base URL and is taken off the path
+ * before its expectations see a request, and it keeps its own expectations and journal.
+ *
+ * <p>Drivers are created with {@link ClientDriverFactory#createClientDriver(SharedClientDriverServer)}. Shutting a
+ * driver down only removes it from this server, which keeps running until {@link #shutdown()} is called.</p>
+ */
+public final class SharedClientDriverServer {
+
+    private static final String PREFIX = "/driver-";
+
+    private final Server jetty;
+    private final int port;
+    private final AtomicLong nextId = new AtomicLong();
+    private final ConcurrentMap<String, ClientDriverJettyHandler> handlers = new ConcurrentHashMap<String, ClientDriverJettyHandler>();
+
+    /**
+     * Creates and starts a server on a free port, with Jetty's default settings.
+     */
+    public SharedClientDriverServer() {
+        this(0, new ServerSettings());
+    }
+
+    /**
+     * Creates and starts a server.
+     *
+     * @param port
+     *            The port to listen on, or 0 to find a free one
+     * @param serverSettings
+     *            The threads and connector settings of the server
+     */
+    public SharedClientDriverServer(int port, ServerSettings serverSettings) {
+
+        jetty = new Server(serverSettings.createThreadPool());
+        jetty.setHandler(serverSettings.createServerHandler(new DispatchingHandler()));
+
+        ServerConnector connector = new ServerConnector(jetty, serverSettings.getAcceptors(), serverSettings.getSelectors(), serverSettings.createCleartextConnectionFactories());
+        connector.setPort(port);
+        jetty.addConnector(connector);
+
+        try {
+            jetty.start();
+        } catch (Exception e) {
+            throw new ClientDriverSetupException("Error starting jetty on port " + port, e);
+        }
+
+        this.port = connector.getLocalPort();
+    }
+
+    /**
+     * @return The port this server is listening on
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Stops the server, and the handlers of any drivers still using it, which stop receiving requests.
+     */
+    public void shutdown() {
+        try {
+            for (String prefix : handlers.keySet()) {
+                unregister(prefix);
+            }
+            jetty.stop();
+        } catch (Exception e) {
+            throw new ClientDriverInternalException("Error shutting down jetty", e);
+        }
+    }
+
+    ClientDriver register(ClientDriverJettyHandler handler) {
+
+        String prefix = PREFIX + nextId.incrementAndGet();
+
+        // a handler only responds asynchronously once it is started and knows its server
+        handler.setServer(jetty);
+        try {
+            handler.start();
+        } catch (Exception e) {
+            throw new ClientDriverSetupException("Error starting handler for " + prefix, e);
+        }
+
+        handlers.put(prefix, handler);
+        return new SharedClientDriver(handler, prefix);
+    }
+
+    private void unregister(String prefix) throws Exception {
+        ClientDriverJettyHandler handler = handlers.remove(prefix);
+        if (handler != null) {
+            handler.stop();
+        }
+    }
+
+    private final class DispatchingHandler extends AbstractHandler {
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+
+            int end = target.indexOf('/', 1);
+            String prefix = end < 0 ? target : target.substring(0, end);
+            ClientDriverJettyHandler handler = handlers.get(prefix);
+
+            if (handler == null) {
+                response.setStatus(404);
+                baseRequest.setHandled(true);
+                return;
+            }
+
+            String path = end < 0 ? "/" : target.substring(end);
+            baseRequest.setPathInfo(path);
+            handler.handle(path, baseRequest, request, response);
+        }
+
+    }
+
+    /**
+     * A driver whose requests are dispatched to it by a shared server.
+     */
+    private final class SharedClientDriver extends ClientDriver {
+
+        private final String prefix;
+
+        SharedClientDriver(ClientDriverJettyHandler handler, String prefix) {
+            super();
+            this.handler = handler;
+            this.jettyServer = jetty;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public String getBaseUrl() {
+            return "http://localhost:" + port + prefix;
+        }
+
+        @Override
+        protected void stopServer() throws Exception {
+            unregister(prefix);
+        }
+
+        @Override
+        protected void replaceConnector(ServerConnector newConnector, Server server) {
+            throw new ClientDriverSetupException("The connector of a shared server cannot be replaced by one of its drivers", null);
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.capture;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.github.restdriver.clientdriver.RealRequest;
+
+/**
+ * Base class for body captures which keep a single converted body. The body is published safely to other threads,
+ * and anyone waiting for it is woken as soon as it is set.
+ */
+public abstract class AbstractBodyCapture<T> implements AwaitableBodyCapture<T> {
+    
+    private final CountDownLatch captured = new CountDownLatch(1);
+    private volatile T content;
+    
+    @Override
+    public T getContent() {
+        return content;
+    }
+    
+    @Override
+    public void setBody(byte[] body) {
+        this.content = convert(body);
+        captured.countDown();
+    }
+    
+    /**
+     * Captures the body of a request, reusing whatever decoded or parsed form of it the request already holds.
+     * 
+     * @param request The request whose body to capture
+     */
+    public void setBody(RealRequest request) {
+        this.content = convert(request);
+        captured.countDown();
+    }
+    
+    @Override
+    public boolean await(long time, TimeUnit timeUnit) throws InterruptedException {
+        return captured.await(time, timeUnit);
+    }
+    
+    /**
+     * Converts a captured body into the type this capture holds.
+     * 
+     * @param body The body of the request
+     * @return The converted body
+     */
+    protected abstract T convert(byte[] body);
+    
+    /**
+     * Converts the body of a request into the type this capture holds. Captures which want text or a parsed form of
+     * the body should override this to take it from the request, which only produces it once.
+     * 
+     * @param request The request whose body to convert
+     * @return The converted body
+     */
+    protected T convert(RealRequest request) {
+        return convert(request.getBodyContent());
+    }
+    
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.capture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link BodyCapture} which can be waited on until a body has been captured.
+ */
+public interface AwaitableBodyCapture<T> extends BodyCapture<T> {
+    
+    /**
+     * Waits until a body has been captured, or until the given time has passed. Returns straight away if a body has
+     * already been captured.
+     * 
+     * @param time The number of units (given in timeUnit) to wait for.
+     * @param timeUnit The unit
+     * @return True if a body was captured, false if the time passed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean await(long time, TimeUnit timeUnit) throws InterruptedException;
+    
+}
@@ -18,17 +18,10 @@ package com.github.restdriver.clientdriver.capture;
 /**
  * Implementation of BodyCapture which just keeps the body as a byte array.
  */
-public class ByteBodyCapture implements BodyCapture<byte[]> {
-    
-    private byte[] content;
-    
-    @Override
-    public byte[] getContent() {
-        return content;
-    }
+public class ByteBodyCapture extends AbstractBodyCapture<byte[]> {
     
     @Override
-    public void setBody(byte[] content) {
-        this.content = content;
+    protected byte[] convert(byte[] body) {
+        return body;
     }
 }
@@ -19,30 +19,37 @@ import java.io.IOException;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.restdriver.clientdriver.RealRequest;
+import com.github.restdriver.exception.RuntimeAssertionFailure;
 import com.github.restdriver.exception.RuntimeMappingException;
 
 /**
  * Implementation of BodyCapture which marshalls the body into a {@link JsonNode}.
  */
-public class JsonBodyCapture implements BodyCapture<JsonNode> {
+public class JsonBodyCapture extends AbstractBodyCapture<JsonNode> {
     
     private static final ObjectMapper MAPPER = new ObjectMapper();
     private static final int PARSE_ERROR_EXCERPT_LENGTH = 16;
     
-    private JsonNode content;
-    
     @Override
-    public JsonNode getContent() {
-        return content;
+    protected JsonNode convert(byte[] json) {
+        try {
+            return MAPPER.readTree(json);
+            
+        } catch (IOException e) {
+            throw new RuntimeMappingException("Can't parse JSON.  Bad content >> " + new String(json).substring(0, PARSE_ERROR_EXCERPT_LENGTH) + "...", e);
+            
+        }
     }
     
     @Override
-    public void setBody(byte[] json) {
+    protected JsonNode convert(RealRequest request) {
         try {
-            this.content = MAPPER.readTree(json);
+            return request.getBodyJson();
             
-        } catch (IOException e) {
-            throw new RuntimeMappingException("Can't parse JSON.  Bad content >> " + new String(json).substring(0, PARSE_ERROR_EXCERPT_LENGTH) + "...", e);
+        } catch (RuntimeAssertionFailure e) {
+            String json = request.getBodyText();
+            throw new RuntimeMappingException("Can't parse JSON.  Bad content >> " + json.substring(0, Math.min(json.length(), PARSE_ERROR_EXCERPT_LENGTH)) + "...", e);
             
         }
     }
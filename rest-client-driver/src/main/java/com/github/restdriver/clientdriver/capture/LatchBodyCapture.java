@@ -16,8 +16,9 @@
 package com.github.restdriver.clientdriver.capture;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
-public class LatchBodyCapture<T> implements BodyCapture<T> {
+public class LatchBodyCapture<T> implements AwaitableBodyCapture<T> {
     private CountDownLatch latch;
     private BodyCapture<T> capture;
     
@@ -41,6 +42,14 @@ public class LatchBodyCapture<T> implements BodyCapture<T> {
         latch.countDown();
     }
     
+    /**
+     * Waits until as many bodies have been captured as this was created to wait for.
+     */
+    @Override
+    public boolean await(long time, TimeUnit timeUnit) throws InterruptedException {
+        return latch.await(time, timeUnit);
+    }
+    
     public CountDownLatch getLatch() {
         return latch;
     }
@@ -15,20 +15,20 @@
  */
 package com.github.restdriver.clientdriver.capture;
 
+import com.github.restdriver.clientdriver.RealRequest;
+
 /**
  * Implementation of BodyCapture which gives the body as a String.
  */
-public class StringBodyCapture implements BodyCapture<String> {
-    
-    private String content;
+public class StringBodyCapture extends AbstractBodyCapture<String> {
     
     @Override
-    public String getContent() {
-        return content;
+    protected String convert(byte[] body) {
+        return new String(body);
     }
     
     @Override
-    public void setBody(byte[] content) {
-        this.content = new String(content);
+    protected String convert(RealRequest request) {
+        return request.getBodyText();
     }
 }
@@ -17,57 +17,174 @@ package com.github.restdriver.clientdriver.exception;
 
 import static com.google.common.base.Preconditions.*;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.github.restdriver.clientdriver.ClientDriverExpectation;
 import com.github.restdriver.clientdriver.HttpRealRequest;
+import com.github.restdriver.clientdriver.NearMiss;
+import com.github.restdriver.clientdriver.Rejection;
 
 /**
  * Runtime exception which is thrown when the client driver's expectations fail.
+ * 
+ * <p>The message is only built the first time it is asked for, since a driver which fails fast throws one of these for
+ * every unexpected request. It lists at most {@value #MAX_REPORTED} requests and expectations, cuts any single line
+ * short at {@value #MAX_LINE_LENGTH} characters, and gives why each expectation tried against an unexpected request
+ * rejected it, as recorded on the request while it was being matched. It can also give the {@value #NEAREST_MISSES}
+ * expectations which each unexpected request came closest to matching, with every reason they did not. The status of each expectation is as it
+ * was when the exception was created.</p>
  */
 public final class ClientDriverFailedExpectationException extends RuntimeException {
     
     private static final long serialVersionUID = -2270688849375416363L;
-    private static final String EXPECTATION_MESSAGE_TEMPLATE = "%s%n  %s -> %s";
+    private static final int MAX_REPORTED = 50;
+    private static final int MAX_LINE_LENGTH = 2000;
+    private static final int NEAREST_MISSES = 3;
+    private static final String NEWLINE = String.format("%n");
+    
+    private final transient List<HttpRealRequest> unexpectedRequests;
+    private final transient List<ClientDriverExpectation> expectations;
+    private final transient List<String> statuses;
+    private final transient boolean nearestMisses;
+    private final transient String heading;
+    private volatile String message;
     
     public ClientDriverFailedExpectationException(List<HttpRealRequest> unexpectedRequests, List<ClientDriverExpectation> expectations) {
-        super(createUnexpectedRequestsMessage(unexpectedRequests, expectations));
+        this(unexpectedRequests, expectations, true);
+    }
+    
+    /**
+     * @param unexpectedRequests
+     *            The requests which matched no expectation
+     * @param expectations
+     *            The expectations there were
+     * @param nearestMisses
+     *            Whether to rank the expectations each request came closest to matching, which is worth doing when
+     *            the test is being failed rather than when the server is failing a request
+     */
+    public ClientDriverFailedExpectationException(List<HttpRealRequest> unexpectedRequests, List<ClientDriverExpectation> expectations, boolean nearestMisses) {
+        checkArgument(unexpectedRequests != null && !unexpectedRequests.isEmpty(), "unexpectedRequests cannot be empty");
+        this.unexpectedRequests = unexpectedRequests;
+        this.expectations = expectations == null ? new ArrayList<ClientDriverExpectation>() : new ArrayList<ClientDriverExpectation>(expectations);
+        this.statuses = statusesOf(this.expectations);
+        this.nearestMisses = nearestMisses;
+        this.heading = unexpectedRequests.size() + " unexpected request(s):";
     }
     
     public ClientDriverFailedExpectationException(List<ClientDriverExpectation> failedExpectations) {
-        super(createFailedExpectationsMessage(failedExpectations));
+        checkArgument(failedExpectations != null && !failedExpectations.isEmpty(), "failedExpectations cannot be empty");
+        this.unexpectedRequests = null;
+        this.expectations = new ArrayList<ClientDriverExpectation>(failedExpectations);
+        this.statuses = statusesOf(failedExpectations);
+        this.nearestMisses = false;
+        this.heading = failedExpectations.size() + " unmatched expectation(s):";
     }
     
-    private static String createUnexpectedRequestsMessage(List<HttpRealRequest> unexpectedRequests, List<ClientDriverExpectation> expectations) {
-        checkArgument(unexpectedRequests != null && !unexpectedRequests.isEmpty(), "unexpectedRequests cannot be empty");
+    // the expectations go on being matched after this is thrown, so only the statuses they had then are reported
+    private static List<String> statusesOf(List<ClientDriverExpectation> expectations) {
+        List<String> statuses = new ArrayList<String>(Math.min(expectations.size(), MAX_REPORTED));
+        for (ClientDriverExpectation expectation : expectations) {
+            if (statuses.size() == MAX_REPORTED) {
+                break;
+            }
+            statuses.add(expectation.getStatusString());
+        }
+        return statuses;
+    }
+    
+    @Override
+    public String getMessage() {
+        String result = message;
+        if (result == null) {
+            result = unexpectedRequests == null ? createFailedExpectationsMessage() : createUnexpectedRequestsMessage();
+            message = result;
+        }
+        return result;
+    }
+    
+    private String createUnexpectedRequestsMessage() {
         
-        String message = String.format("%d unexpected request(s):", unexpectedRequests.size());
+        StringBuilder report = new StringBuilder(heading);
         
+        int reported = 0;
         for (HttpRealRequest unexpectedRequest : unexpectedRequests) {
-            message = String.format("%s%n  %s", message, unexpectedRequest);
+            if (reported++ == MAX_REPORTED) {
+                appendOmitted(report, unexpectedRequests.size() - MAX_REPORTED, "request(s)");
+                break;
+            }
+            appendLine(report, "  ", unexpectedRequest);
+            appendRejections(report, unexpectedRequest);
+            if (nearestMisses) {
+                appendNearestMisses(report, unexpectedRequest);
+            }
         }
         
-        if (expectations != null && !expectations.isEmpty()) {
-            message = String.format("%s%n%n%d expectation(s):", message, expectations.size());
-            message = addExpectationsMessages(expectations, message);
+        if (!expectations.isEmpty()) {
+            report.append(NEWLINE).append(NEWLINE).append(expectations.size()).append(" expectation(s):");
+            appendExpectations(report);
         }
         
-        return message;
+        return report.toString();
     }
     
-    private static String createFailedExpectationsMessage(List<ClientDriverExpectation> failedExpectations) {
-        checkArgument(failedExpectations != null && !failedExpectations.isEmpty(), "failedExpectations cannot be empty");
-        
-        String message = String.format("%d unmatched expectation(s):", failedExpectations.size());
+    private String createFailedExpectationsMessage() {
+        StringBuilder report = new StringBuilder(heading);
+        appendExpectations(report);
+        return report.toString();
+    }
+    
+    // these were recorded while the request was being matched, so giving them costs nothing but formatting
+    private static void appendRejections(StringBuilder report, HttpRealRequest unexpectedRequest) {
+        for (Rejection rejection : unexpectedRequest.getRejections()) {
+            appendLine(report, "    tried: ", rejection + " by " + rejection.getExpectedRequest());
+        }
+    }
+    
+    private void appendNearestMisses(StringBuilder report, HttpRealRequest unexpectedRequest) {
         
-        return addExpectationsMessages(failedExpectations, message);
+        for (NearMiss miss : NearMiss.rank(unexpectedRequest, expectations, NEAREST_MISSES)) {
+            appendLine(report, "    nearest: ", miss.getPassedChecks() + "/" + miss.getTotalChecks() + " checks passed by " + miss.getExpectation().getPair().getRequest());
+            for (Rejection rejection : miss.getRejections()) {
+                appendLine(report, "      ", rejection);
+            }
+        }
     }
     
-    private static String addExpectationsMessages(List<ClientDriverExpectation> expectations, String message) {
+    private void appendExpectations(StringBuilder report) {
+        
+        int reported = 0;
         for (ClientDriverExpectation expectation : expectations) {
-            message = String.format(EXPECTATION_MESSAGE_TEMPLATE, message, expectation.getStatusString(), expectation.getPair().getRequest());
+            if (reported++ == MAX_REPORTED) {
+                appendOmitted(report, expectations.size() - MAX_REPORTED, "expectation(s)");
+                break;
+            }
+            appendLine(report, "  ", statuses.get(reported - 1) + " -> " + expectation.getPair().getRequest());
         }
+    }
+    
+    private static void appendOmitted(StringBuilder report, int omitted, String what) {
+        report.append(NEWLINE).append("  ... and ").append(omitted).append(" more ").append(what);
+    }
+    
+    private static void appendLine(StringBuilder report, String indent, Object line) {
         
-        return message;
+        String text = String.valueOf(line);
+        report.append(NEWLINE).append(indent);
+        
+        if (text.length() > MAX_LINE_LENGTH) {
+            report.append(text, 0, MAX_LINE_LENGTH).append("... (").append(text.length() - MAX_LINE_LENGTH).append(" more characters)");
+        } else {
+            report.append(text);
+        }
     }
+    
+    // the requests and expectations cannot be serialized, so the message is built from them before they are lost
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getMessage();
+        out.defaultWriteObject();
+    }
+    
 }
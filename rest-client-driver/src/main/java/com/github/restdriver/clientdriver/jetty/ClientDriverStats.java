@@ -0,0 +1,188 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.github.restdriver.clientdriver.ClientDriverExpectation;
+import com.github.restdriver.clientdriver.ClientDriverRequest;
+
+/**
+ * A snapshot of the statistics of a client driver's handler. Counters cover everything since the handler was created,
+ * while the expectation hits and rejection counts cover the expectations added since it was last reset.
+ */
+public final class ClientDriverStats implements ClientDriverStatsMXBean {
+
+    private final long requests;
+    private final long matchedRequests;
+    private final long unmatchedRequests;
+    private final long inFlightRequests;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final int journalSize;
+    private final int journalCapacity;
+    private final long journalLostCount;
+    private final long handlingTimeCount;
+    private final long handlingTimeMean;
+    private final long handlingTimeMedian;
+    private final long handlingTime99thPercentile;
+    private final long handlingTimeMax;
+    private final Map<String, Long> expectationHits;
+    private final Map<String, Long> rejectionCounts;
+
+    ClientDriverStats(StatsRecorder recorder, RequestJournal journal, Iterable<ClientDriverExpectation> expectations) {
+
+        requests = recorder.requests.sum();
+        matchedRequests = recorder.matched.sum();
+        unmatchedRequests = recorder.unmatched.sum();
+        inFlightRequests = recorder.inFlight.sum();
+        bytesIn = recorder.bytesIn.sum();
+        bytesOut = recorder.bytesOut.sum();
+
+        journalSize = journal.getSize();
+        journalCapacity = journal.getCapacity();
+        journalLostCount = journal.getLostCount();
+
+        handlingTimeCount = recorder.handlingTime.getCount();
+        handlingTimeMean = recorder.handlingTime.getMean();
+        handlingTimeMedian = recorder.handlingTime.getPercentile(0.5);
+        handlingTime99thPercentile = recorder.handlingTime.getPercentile(0.99);
+        handlingTimeMax = recorder.handlingTime.getMax();
+
+        expectationHits = expectationHitsOf(expectations);
+        rejectionCounts = rejectionCountsOf(expectations);
+    }
+
+    static Map<String, Long> expectationHitsOf(Iterable<ClientDriverExpectation> expectations) {
+
+        Map<String, Long> hits = new LinkedHashMap<String, Long>();
+
+        int position = 1;
+        for (ClientDriverExpectation expectation : expectations) {
+            hits.put(position++ + ": " + expectation.getPair().getRequest(), (long) expectation.getMatchCount());
+        }
+
+        return Collections.unmodifiableMap(hits);
+    }
+
+    static Map<String, Long> rejectionCountsOf(Iterable<ClientDriverExpectation> expectations) {
+
+        Map<String, Long> rejections = new LinkedHashMap<String, Long>();
+
+        for (ClientDriverExpectation expectation : expectations) {
+            ClientDriverRequest request = expectation.getPair().getRequest();
+
+            for (Entry<String, Long> rejection : request.getRejectionCounts().entrySet()) {
+                Long sum = rejections.get(rejection.getKey());
+                rejections.put(rejection.getKey(), sum == null ? rejection.getValue() : sum + rejection.getValue());
+            }
+        }
+
+        return Collections.unmodifiableMap(rejections);
+    }
+
+    @Override
+    public long getRequests() {
+        return requests;
+    }
+
+    @Override
+    public long getMatchedRequests() {
+        return matchedRequests;
+    }
+
+    @Override
+    public long getUnmatchedRequests() {
+        return unmatchedRequests;
+    }
+
+    @Override
+    public long getInFlightRequests() {
+        return inFlightRequests;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    @Override
+    public int getJournalSize() {
+        return journalSize;
+    }
+
+    @Override
+    public int getJournalCapacity() {
+        return journalCapacity;
+    }
+
+    @Override
+    public long getJournalLostCount() {
+        return journalLostCount;
+    }
+
+    @Override
+    public long getHandlingTimeCount() {
+        return handlingTimeCount;
+    }
+
+    @Override
+    public long getHandlingTimeMean() {
+        return handlingTimeMean;
+    }
+
+    @Override
+    public long getHandlingTimeMedian() {
+        return handlingTimeMedian;
+    }
+
+    @Override
+    public long getHandlingTime99thPercentile() {
+        return handlingTime99thPercentile;
+    }
+
+    @Override
+    public long getHandlingTimeMax() {
+        return handlingTimeMax;
+    }
+
+    @Override
+    public Map<String, Long> getExpectationHits() {
+        return expectationHits;
+    }
+
+    @Override
+    public Map<String, Long> getRejectionCounts() {
+        return rejectionCounts;
+    }
+
+    @Override
+    public String toString() {
+        return "ClientDriverStats: requests " + requests + " (matched " + matchedRequests + ", unmatched " + unmatchedRequests + ", in flight " + inFlightRequests + "); "
+                + "bytes in " + bytesIn + ", out " + bytesOut + "; "
+                + "journal " + journalSize + "/" + journalCapacity + " (lost " + journalLostCount + "); "
+                + "handling time ns mean " + handlingTimeMean + ", median " + handlingTimeMedian + ", 99% " + handlingTime99thPercentile + ", max " + handlingTimeMax + ";";
+    }
+
+}
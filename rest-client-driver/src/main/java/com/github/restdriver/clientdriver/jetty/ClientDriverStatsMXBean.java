@@ -0,0 +1,108 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.util.Map;
+
+/**
+ * The statistics of a client driver's handler, as exposed over JMX. Durations are in nanoseconds.
+ */
+public interface ClientDriverStatsMXBean {
+    
+    /**
+     * @return The number of requests received since the handler was created
+     */
+    long getRequests();
+    
+    /**
+     * @return The number of requests which matched an expectation
+     */
+    long getMatchedRequests();
+    
+    /**
+     * @return The number of requests which matched no expectation
+     */
+    long getUnmatchedRequests();
+    
+    /**
+     * @return The number of requests being handled now, including delayed responses not yet sent
+     */
+    long getInFlightRequests();
+    
+    /**
+     * @return The number of request body bytes received. A body is counted by its Content-Length, or by what was read
+     *         of it if it had none, so a body with no Content-Length which was too long to retain is left out.
+     */
+    long getBytesIn();
+    
+    /**
+     * @return The number of response body bytes sent
+     */
+    long getBytesOut();
+    
+    /**
+     * @return The number of requests held in the journal
+     */
+    int getJournalSize();
+    
+    /**
+     * @return The most requests the journal can hold
+     */
+    int getJournalCapacity();
+    
+    /**
+     * @return The number of requests since the last reset which the journal no longer holds
+     */
+    long getJournalLostCount();
+    
+    /**
+     * @return The number of requests whose handling time was recorded
+     */
+    long getHandlingTimeCount();
+    
+    /**
+     * @return The mean time taken to handle a request, not counting any delay asked for by its response
+     */
+    long getHandlingTimeMean();
+    
+    /**
+     * @return The median time taken to handle a request
+     */
+    long getHandlingTimeMedian();
+    
+    /**
+     * @return The time which 99% of requests were handled within
+     */
+    long getHandlingTime99thPercentile();
+    
+    /**
+     * @return The longest time taken to handle a request
+     */
+    long getHandlingTimeMax();
+    
+    /**
+     * @return The number of times each expectation added since the last reset has been matched, keyed by its position
+     *         and request, including expectations which have since been satisfied
+     */
+    Map<String, Long> getExpectationHits();
+    
+    /**
+     * @return The number of requests rejected by each kind of check, summed over the expectations added since the last
+     *         reset
+     */
+    Map<String, Long> getRejectionCounts();
+    
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the requests being handled on each client connection, so that the concurrency of HTTP/2 streams can be
+ * recorded. A connection is told apart by its remote address and port, which needs nothing beyond the servlet API.
+ *
+ * <p>This class is thread-safe without locking. A counter which has dropped to zero is dead and is removed, and a
+ * request arriving at the same moment starts a fresh one.</p>
+ */
+final class ConnectionRequestCounter {
+
+    private final ConcurrentMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * Counts a request arriving on a connection.
+     *
+     * @param connection
+     *            The remote address and port of the connection
+     * @return The number of requests now being handled on the connection, including this one
+     */
+    int arrived(String connection) {
+        while (true) {
+            AtomicInteger count = inFlight.get(connection);
+
+            if (count == null) {
+                if (inFlight.putIfAbsent(connection, new AtomicInteger(1)) == null) {
+                    return 1;
+                }
+                continue;
+            }
+
+            int current = count.get();
+            if (current == 0) {
+                inFlight.remove(connection, count);
+            } else if (count.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    /**
+     * Counts a request on a connection having been responded to.
+     *
+     * @param connection
+     *            The remote address and port of the connection
+     */
+    void completed(String connection) {
+        AtomicInteger count = inFlight.get(connection);
+        if (count != null && count.decrementAndGet() == 0) {
+            inFlight.remove(connection, count);
+        }
+    }
+
+}
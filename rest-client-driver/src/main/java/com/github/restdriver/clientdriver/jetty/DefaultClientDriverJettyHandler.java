@@ -15,18 +15,48 @@
  */
 package com.github.restdriver.clientdriver.jetty;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.eclipse.jetty.util.thread.Scheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,43 +65,94 @@ import com.github.restdriver.clientdriver.ClientDriverExpectation;
 import com.github.restdriver.clientdriver.ClientDriverRequest;
 import com.github.restdriver.clientdriver.ClientDriverRequestResponsePair;
 import com.github.restdriver.clientdriver.ClientDriverResponse;
+import com.github.restdriver.clientdriver.DefaultRequestMatcher;
 import com.github.restdriver.clientdriver.HttpRealRequest;
 import com.github.restdriver.clientdriver.RequestMatcher;
+import com.github.restdriver.clientdriver.capture.AbstractBodyCapture;
 import com.github.restdriver.clientdriver.exception.ClientDriverFailedExpectationException;
 import com.github.restdriver.clientdriver.exception.ClientDriverInternalException;
-import com.google.common.collect.Lists;
 
 /**
  * Class which acts as a Jetty Handler to see if the actual incoming HTTP
  * request matches any expectation and to act accordingly. In case of any kind
  * of error, {@link ClientDriverInternalException} is usually thrown.
+ * 
+ * <p>Requests are matched concurrently without any global lock. Each expectation counts its own matches atomically,
+ * so an expectation is never matched more times than it expects however many requests race for it.</p>
  */
 public final class DefaultClientDriverJettyHandler extends AbstractHandler implements ClientDriverJettyHandler {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultClientDriverJettyHandler.class);
-    private static final long DEFAULT_WAIT_INTERVAL = 500;
+    private static final AtomicLong NEXT_STATS_ID = new AtomicLong();
     
-    private final List<ClientDriverExpectation> expectations;
-    private final List<ClientDriverRequestResponsePair> matchedResponses;
+    private final ExpectationIndex expectations;
+    private final MatchCache matchCache;
     private final RequestMatcher matcher;
+    private final Scheduler scheduler;
     private final List<HttpRealRequest> unexpectedRequests;
-    private final List<HttpRealRequest> requests;
-    private boolean failFastOnUnexpectedRequest = true;
+    private final RequestJournal journal;
+    private final boolean journalQueryIndexed;
+    private final ConnectionRequestCounter connections = new ConnectionRequestCounter();
+    private final StatsRecorder stats = new StatsRecorder();
+    private final Queue<ClientDriverExpectation> expectationsSinceReset = new ConcurrentLinkedQueue<ClientDriverExpectation>();
+    private final ConcurrentMap<ClientDriverResponse, PreparedResponse> preparedResponses = new ConcurrentHashMap<ClientDriverResponse, PreparedResponse>();
+    private volatile boolean statsOverJmx;
+    private ObjectName statsName;
+    private final ConcurrentMap<ClientDriverExpectation, AtomicInteger> responding = new ConcurrentHashMap<ClientDriverExpectation, AtomicInteger>();
+    private final Object satisfactionMonitor = new Object();
+    private long satisfactionVersion;
+    private volatile boolean failFastOnUnexpectedRequest = true;
+    private final AtomicInteger generation = new AtomicInteger();
     
     /**
-     * Constructor which accepts a {@link RequestMatcher}.
+     * Constructor which accepts a {@link RequestMatcher}. Received requests are kept in a journal of the default
+     * capacity.
      * 
      * @param matcher
      *            The {@link RequestMatcher} to use.
      */
     public DefaultClientDriverJettyHandler(RequestMatcher matcher) {
+        this(matcher, new RequestJournal());
+    }
+    
+    /**
+     * Constructor which accepts a {@link RequestMatcher} and the {@link RequestJournal} to keep received requests in.
+     * 
+     * @param matcher
+     *            The {@link RequestMatcher} to use.
+     * @param journal
+     *            The {@link RequestJournal} to record requests in, for {@link #verify(ClientDriverRequest, int)}.
+     */
+    public DefaultClientDriverJettyHandler(RequestMatcher matcher, RequestJournal journal) {
+        this(matcher, journal, 0);
+    }
+    
+    /**
+     * Constructor which accepts a {@link RequestMatcher}, the {@link RequestJournal} to keep received requests in and
+     * the size of a cache of matches against {@link ClientDriverExpectation#anyTimes()} expectations.
+     * 
+     * @param matcher
+     *            The {@link RequestMatcher} to use.
+     * @param journal
+     *            The {@link RequestJournal} to record requests in, for {@link #verify(ClientDriverRequest, int)}.
+     * @param matchCacheCapacity
+     *            The number of distinct requests whose matches are cached, or 0 for none. Only the default matcher's
+     *            matches are ever cached, and the cache is emptied whenever an expected request is changed.
+     */
+    public DefaultClientDriverJettyHandler(RequestMatcher matcher, RequestJournal journal, int matchCacheCapacity) {
         
-        expectations = new ArrayList<ClientDriverExpectation>();
-        matchedResponses = new ArrayList<ClientDriverRequestResponsePair>();
-        unexpectedRequests = new ArrayList<HttpRealRequest>();
-        requests = new ArrayList<HttpRealRequest>();
+        // only the default matcher is known to reject on method and path, so other matchers must see every expectation
+        expectations = new ExpectationIndex(matcher instanceof DefaultRequestMatcher);
+        matchCache = new MatchCache(matcher instanceof DefaultRequestMatcher ? matchCacheCapacity : 0, expectations);
+        unexpectedRequests = new CopyOnWriteArrayList<HttpRealRequest>();
         
         this.matcher = matcher;
+        this.journal = journal;
+        this.journalQueryIndexed = matcher instanceof DefaultRequestMatcher;
+        
+        // delayed responses are timed here rather than by sleeping on one of Jetty's threads
+        scheduler = new ScheduledExecutorScheduler("rest-client-driver-delays", true);
+        addBean(scheduler);
         
     }
     
@@ -80,96 +161,421 @@ public final class DefaultClientDriverJettyHandler extends AbstractHandler imple
      * 
      * <p>This implementation uses the expected {@link ClientDriverRequest}/ {@link ClientDriverResponse} pairs to serve its requests. If an unexpected request comes in, a
      * {@link ClientDriverInternalException} is thrown.</p>
+     * 
+     * <p>A response with a delay is sent asynchronously once the delay has passed, and a throttled body is written
+     * with non-blocking writes, so no thread is held while waiting. If the request cannot be handled asynchronously,
+     * for example because this handler has not been started, the handling thread sleeps through the waits instead.</p>
+     * 
+     * <p>Each HTTP/2 stream is handled as a request of its own. The journal records the protocol of every request and
+     * how many requests were being handled on its connection when it arrived.</p>
      */
     @Override
     public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
         
         LOGGER.info("Handling: {} {}", request.getMethod(), request.getPathInfo());
         
-        ClientDriverRequestResponsePair matchingPair = getMatchingRequestPair(request);
+        long started = System.nanoTime();
+        long delayed = 0;
+        stats.requests.increment();
+        stats.inFlight.increment();
         
-        if (matchingPair != null) {
-            matchedResponses.add(matchingPair);
+        // each HTTP/2 stream is a request of its own, so this counts the streams open on the connection
+        String connection = request.getRemoteAddr() + ":" + request.getRemotePort();
+        HttpRealRequest realRequest = new HttpRealRequest(request, connections.arrived(connection));
+        int arrivedIn = generation.get();
+        ClientDriverExpectation matchedExpectation = null;
+        boolean asynchronous = false;
+        
+        try {
+            try {
+                matchedExpectation = getMatchingExpectation(realRequest);
+            } finally {
+                // the servlet request is recycled once handled, so only a detached copy can go in the journal
+                realRequest.detach(journal.getMaxRetainedBodyLength());
+                journal.record(realRequest);
+                countBytesIn(request, realRequest);
+            }
             
-            ClientDriverResponse matchedResponse = matchingPair.getResponse();
+            if (matchedExpectation != null) {
+                ClientDriverResponse matchedResponse = matchedExpectation.getPair().getResponse();
+                
+                if ((matchedResponse.getDelayTime() > 0 || matchedResponse.isThrottled()) && canRespondAsynchronously(request)) {
+                    respondAsynchronously(request, matchedResponse, connection, matchedExpectation, arrivedIn);
+                    asynchronous = true;
+                } else {
+                    writeResponse(response, matchedResponse);
+                    delayed = delayIfNecessary(matchedResponse);
+                    
+                    // verification may shut the server down once it hears of this match, so the response goes out first
+                    response.getOutputStream().close();
+                }
+            } else {
+                response.setStatus(404);
+            }
             
-            response.setContentType(matchedResponse.getContentType());
-            response.setStatus(matchedResponse.getStatus());
-            response.setHeader("Server", "rest-client-driver(" + RestDriverProperties.getVersion() + ")");
+            baseRequest.setHandled(true);
+        } finally {
+            // a delay is what the expectation asked for, so it is not counted as time spent handling
+            stats.handlingTime.record(System.nanoTime() - started - delayed);
+            if (!asynchronous) {
+                finished(connection, matchedExpectation);
+            }
+        }
+    }
+    
+    /**
+     * Counts the length of the request body, which is taken from its Content-Length if it gave one. Otherwise it is
+     * only known if the body was read, so a body with no Content-Length which was too long to retain is not counted.
+     */
+    private void countBytesIn(HttpServletRequest request, HttpRealRequest realRequest) {
+        
+        long contentLength = request.getContentLengthLong();
+        
+        if (contentLength >= 0) {
+            stats.bytesIn.add(contentLength);
+        } else if (realRequest.isBodyRetained()) {
+            stats.bytesIn.add(realRequest.getBodyContent().length);
+        }
+    }
+    
+    private void finished(String connection, ClientDriverExpectation matchedExpectation) {
+        connections.completed(connection);
+        stats.inFlight.decrement();
+        if (matchedExpectation != null) {
+            responded(matchedExpectation);
+        }
+    }
+    
+    /**
+     * Counts a response to an expectation as being written. This is done before the match is claimed, so that the
+     * count cannot drop to zero between another request satisfying the expectation and starting its response.
+     */
+    private void responding(ClientDriverExpectation expectation) {
+        
+        if (expectation.shouldMatchAnyTimes()) {
+            return;
+        }
+        
+        AtomicInteger count = responding.get(expectation);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = responding.putIfAbsent(expectation, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+    
+    /**
+     * Counts a response to an expectation as written, or a match of it as not claimed after all. Once a satisfied
+     * expectation has no responses left being written it is removed, and verification is told.
+     */
+    private void responded(ClientDriverExpectation expectation) {
+        
+        AtomicInteger count = responding.get(expectation);
+        
+        if (count != null && count.decrementAndGet() == 0 && expectation.isSatisfied()) {
+            responding.remove(expectation, count);
+            expectations.remove(expectation);
+            matchCache.invalidate();
+            signalSatisfactionChanged();
+        }
+    }
+    
+    private void writeResponse(HttpServletResponse response, ClientDriverResponse matchedResponse) throws IOException {
+        
+        PreparedResponse prepared = writeStatusAndHeaders(response, matchedResponse);
+        
+        if (matchedResponse.isThrottled()) {
+            long length = throttledBodyLength(response, matchedResponse);
+            stats.bytesOut.add(length);
+            ThrottledBodyWriter.writeBlocking(response.getOutputStream(), openThrottledBody(matchedResponse), length, matchedResponse.getChunkSize(), matchedResponse.getChunkPauseNanos());
+        } else if (matchedResponse.getFile() != null) {
+            writeFile(response, matchedResponse.getFile());
+        } else if (prepared.hasBody()) {
+            stats.bytesOut.add(prepared.getBody().remaining());
+            OutputStream output = response.getOutputStream();
+            if (output instanceof HttpOutput) {
+                ((HttpOutput) output).sendContent(prepared.getBody());
+            } else {
+                output.write(matchedResponse.getContentAsBytes());
+            }
+        }
+    }
+    
+    private PreparedResponse writeStatusAndHeaders(HttpServletResponse response, ClientDriverResponse matchedResponse) {
+        
+        PreparedResponse prepared = prepared(matchedResponse);
+        
+        if (response instanceof Response) {
+            writePreparedHeaders((Response) response, prepared);
+        } else {
+            writeHeaders(response, matchedResponse);
+        }
+        
+        return prepared;
+    }
+    
+    private long throttledBodyLength(HttpServletResponse response, ClientDriverResponse matchedResponse) throws IOException {
+        
+        long length;
+        if (matchedResponse.getFile() != null) {
+            length = Files.size(matchedResponse.getFile());
+        } else {
+            length = matchedResponse.hasBody() ? matchedResponse.getContentAsBytes().length : 0;
+        }
+        
+        // without a length, Jetty falls back to chunked transfer encoding
+        if (!matchedResponse.isChunked()) {
+            response.setContentLengthLong(length);
+        }
+        
+        return length;
+    }
+    
+    /**
+     * Opens the body of a throttled response to be read a piece at a time, so that a file is never loaded whole.
+     */
+    private ReadableByteChannel openThrottledBody(ClientDriverResponse matchedResponse) throws IOException {
+        
+        if (matchedResponse.getFile() != null) {
+            return FileChannel.open(matchedResponse.getFile(), StandardOpenOption.READ);
+        }
+        
+        byte[] body = matchedResponse.hasBody() ? matchedResponse.getContentAsBytes() : new byte[0];
+        return Channels.newChannel(new ByteArrayInputStream(body));
+    }
+    
+    /**
+     * Gets the wire form of a response, which is only prepared again if the response has been changed since.
+     */
+    private PreparedResponse prepared(ClientDriverResponse response) {
+        
+        PreparedResponse prepared = preparedResponses.get(response);
+        
+        if (prepared == null || !prepared.isCurrentFor(response)) {
+            // requests racing to a changed response may each prepare it, and whichever is kept last is as good
+            prepared = new PreparedResponse(response);
+            preparedResponses.put(response, prepared);
+        }
+        
+        return prepared;
+    }
+    
+    private void writePreparedHeaders(Response response, PreparedResponse prepared) {
+        
+        response.setStatus(prepared.getStatus());
+        
+        if (prepared.getContentType() != null) {
+            response.setContentType(prepared.getContentType());
+        }
+        if (prepared.getContentLength() >= 0) {
+            response.setContentLengthLong(prepared.getContentLength());
+        }
+        
+        HttpFields fields = response.getHttpFields();
+        for (HttpField field : prepared.getFields()) {
+            fields.put(field);
+        }
+    }
+    
+    private void writeHeaders(HttpServletResponse response, ClientDriverResponse matchedResponse) {
+        
+        response.setContentType(matchedResponse.getContentType());
+        response.setStatus(matchedResponse.getStatus());
+        response.setHeader("Server", "rest-client-driver(" + RestDriverProperties.getVersion() + ")");
+        
+        for (Entry<String, String> thisHeader : matchedResponse.getHeaders().entrySet()) {
+            response.setHeader(thisHeader.getKey(), thisHeader.getValue());
+        }
+    }
+    
+    private void writeFile(HttpServletResponse response, Path file) throws IOException {
+        
+        OutputStream output = response.getOutputStream();
+        
+        if (!(output instanceof HttpOutput)) {
+            response.setContentLengthLong(Files.size(file));
+            stats.bytesOut.add(Files.copy(file, output));
+            return;
+        }
+        
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long length = channel.size();
+            response.setContentLengthLong(length);
+            stats.bytesOut.add(length);
             
-            for (Entry<String, String> thisHeader : matchedResponse.getHeaders().entrySet()) {
-                response.setHeader(thisHeader.getKey(), thisHeader.getValue());
+            // a mapping is written straight from the page cache, but one can be no bigger than 2GiB
+            if (length <= Integer.MAX_VALUE) {
+                ((HttpOutput) output).sendContent(channel.map(MapMode.READ_ONLY, 0, length));
+            } else {
+                ((HttpOutput) output).sendContent(channel);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+    
+    private boolean canRespondAsynchronously(HttpServletRequest request) {
+        // a request already handed over to a virtual thread is asynchronous, and can block that thread instead
+        return request.isAsyncSupported() && !request.isAsyncStarted() && scheduler.isRunning() && getServer() != null;
+    }
+    
+    private void respondAsynchronously(HttpServletRequest request, final ClientDriverResponse matchedResponse, final String connection, final ClientDriverExpectation matchedExpectation, final int arrivedIn) {
+        
+        final AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(0);
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                finished(connection, matchedExpectation);
             }
             
-            if (matchedResponse.hasBody()) {
-                OutputStream output = response.getOutputStream();
-                output.write(matchedResponse.getContentAsBytes());
+            @Override
+            public void onTimeout(AsyncEvent event) {
+            }
+            
+            @Override
+            public void onError(AsyncEvent event) {
             }
             
-            delayIfNecessary(matchingPair.getResponse());
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        
+        final Runnable respond = new Runnable() {
+            @Override
+            public void run() {
+                boolean writing = false;
+                try {
+                    HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+                    
+                    if (generation.get() != arrivedIn) {
+                        // the driver was reset while this response was delayed, so the expectation it matched is gone
+                        response.setStatus(404);
+                    } else if (matchedResponse.isThrottled()) {
+                        writeStatusAndHeaders(response, matchedResponse);
+                        long length = throttledBodyLength(response, matchedResponse);
+                        stats.bytesOut.add(length);
+                        new ThrottledBodyWriter(asyncContext, response.getOutputStream(), scheduler, getServer().getThreadPool(), openThrottledBody(matchedResponse), length, matchedResponse.getChunkSize(), matchedResponse.getChunkPauseNanos()).start();
+                        writing = true;
+                    } else {
+                        writeResponse(response, matchedResponse);
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to write asynchronous response", e);
+                } finally {
+                    // a throttled writer completes the context itself once the whole body is out
+                    if (!writing) {
+                        asyncContext.complete();
+                    }
+                }
+            }
+        };
+        
+        if (matchedResponse.getDelayTime() > 0) {
+            // the timer thread only hands over to the server's pool, so a slow client cannot hold up other delayed responses
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    getServer().getThreadPool().execute(respond);
+                }
+            }, matchedResponse.getDelayTime(), matchedResponse.getDelayTimeUnit());
         } else {
-            response.setStatus(404);
+            respond.run();
         }
-        
-        baseRequest.setHandled(true);
     }
     
-    private void delayIfNecessary(ClientDriverResponse response) {
+    /**
+     * @return The time spent sleeping, in nanoseconds
+     */
+    private long delayIfNecessary(ClientDriverResponse response) {
         
         if (response.getDelayTime() > 0) {
             
+            long started = System.nanoTime();
             try {
                 response.getDelayTimeUnit().sleep(response.getDelayTime());
                 
             } catch (InterruptedException ie) {
                 throw new ClientDriverInternalException("Requested delay was interrupted", ie);
             }
+            return System.nanoTime() - started;
             
         }
         
+        return 0;
     }
     
-    private synchronized ClientDriverRequestResponsePair getMatchingRequestPair(HttpServletRequest request) {
+    private ClientDriverExpectation getMatchingExpectation(HttpRealRequest realRequest) {
         
-        ClientDriverExpectation matchedExpectation = null;
-        HttpRealRequest realRequest = new HttpRealRequest(request);
-        requests.add(realRequest);
-
-        int index;
-        for (index = 0; index < expectations.size(); index++) {
-            ClientDriverExpectation thisExpectation = expectations.get(index);
-            ClientDriverRequestResponsePair thisPair = thisExpectation.getPair();
+        MatchCache.Lookup cached = matchCache.isEnabled() ? matchCache.lookup(realRequest) : null;
+        ClientDriverExpectation matchedExpectation = cached == null ? null : cached.get();
+        
+        if (matchedExpectation != null && !claim(matchedExpectation, realRequest)) {
+            matchedExpectation = null;
+        }
+        
+        if (matchedExpectation == null) {
+            boolean cacheable = cached != null;
             
-            if (matcher.isMatch(realRequest, thisPair.getRequest())) {
-                thisExpectation.match(realRequest);
-                matchedExpectation = thisExpectation;
-                break;
+            for (ClientDriverExpectation thisExpectation : expectations.candidatesFor(realRequest)) {
+                cacheable = cacheable && MatchCache.isStateless(thisExpectation);
+                
+                // another request may have used up the last match since this one started, so carry on looking if so
+                if (matcher.isMatch(realRequest, thisExpectation.getPair().getRequest()) && claim(thisExpectation, realRequest)) {
+                    matchedExpectation = thisExpectation;
+                    break;
+                }
+            }
+            
+            if (matchedExpectation != null && cacheable) {
+                cached.put(matchedExpectation);
             }
         }
         
         if (matchedExpectation == null) {
+            stats.unmatched.increment();
             this.unexpectedRequests.add(realRequest);
             
             if (failFastOnUnexpectedRequest) {
-                throw new ClientDriverFailedExpectationException(unexpectedRequests, expectations);
+                // Jetty logs this for the failed request, so the nearest misses are left for the test's own failure
+                throw new ClientDriverFailedExpectationException(new ArrayList<HttpRealRequest>(unexpectedRequests), expectations.asList(), false);
             } else {
                 return null;
             }
         } else {
-            if (matchedExpectation.isSatisfied()) {
-                expectations.remove(index);
-            }
+            stats.matched.increment();
+            realRequest.clearRejections();
             
+            // a satisfied expectation is only removed, waking verification, once its responses have been written
             captureBodyIfRequired(realRequest, matchedExpectation);
             
-            return matchedExpectation.getPair();
+            return matchedExpectation;
         }
     }
     
+    private boolean claim(ClientDriverExpectation expectation, HttpRealRequest realRequest) {
+        
+        responding(expectation);
+        
+        if (expectation.tryMatch(realRequest)) {
+            return true;
+        }
+        
+        responded(expectation);
+        return false;
+    }
+    
     private void captureBodyIfRequired(HttpRealRequest realRequest,
             ClientDriverExpectation matchedExpectation) {
         ClientDriverRequest request = matchedExpectation.getPair().getRequest();
-        if (request.getBodyCapture() != null) {
+        if (request.getBodyCapture() instanceof AbstractBodyCapture) {
+            ((AbstractBodyCapture<?>) request.getBodyCapture()).setBody(realRequest);
+        } else if (request.getBodyCapture() != null) {
             request.getBodyCapture().setBody(realRequest.getBodyContent());
         }
     }
@@ -178,56 +584,148 @@ public final class DefaultClientDriverJettyHandler extends AbstractHandler imple
     public void checkForUnexpectedRequests() {
         
         if (!unexpectedRequests.isEmpty()) {
-            throw new ClientDriverFailedExpectationException(unexpectedRequests, expectations);
+            throw new ClientDriverFailedExpectationException(new ArrayList<HttpRealRequest>(unexpectedRequests), expectations.asList());
         }
         
     }
     
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>While any expectation with a {@link ClientDriverResponse#within(long, java.util.concurrent.TimeUnit)} limit is
+     * unmatched and unexpired, this waits. It wakes as soon as an expectation is satisfied, or else at the earliest
+     * expiry, so it returns as soon as the outcome is settled. An expectation only counts as satisfied once the
+     * responses to its matches have been written, so that the server is not shut down under them.</p>
+     */
     @Override
     public void checkForUnmatchedExpectations() {
         
-        if (expectations.isEmpty()) {
-            return;
-        }
-        
-        long period = 0;
-        List<ClientDriverExpectation> failedExpectations = Lists.newArrayList();
+        // once an expectation is seen to have missed its time it has failed, even if it is matched late
+        Set<ClientDriverExpectation> failedExpectations = new LinkedHashSet<ClientDriverExpectation>();
         
         while (true) {
             
-            if (period > 0) {
-                waitFor(period);
-                period = 0;
-            }
+            long seenVersion = currentSatisfactionVersion();
+            long earliestExpiry = Long.MAX_VALUE;
+            boolean writing = false;
             
-            for (ClientDriverExpectation expectation : expectations) {
+            for (ClientDriverExpectation expectation : expectations.asList()) {
                 
                 if (expectation.shouldMatchAnyTimes()) {
                     continue;
                 }
                 
+                // a satisfied expectation is still here while its responses are being written
+                if (expectation.isSatisfied()) {
+                    writing = true;
+                    continue;
+                }
+                
                 ClientDriverResponse response = expectation.getPair().getResponse();
                 
                 if (response.canExpire() && response.hasNotExpired()) {
-                    period = DEFAULT_WAIT_INTERVAL;
-                    break;
+                    earliestExpiry = Math.min(earliestExpiry, response.getExpiryTime());
+                } else {
+                    failedExpectations.add(expectation);
                 }
-                
-                failedExpectations.add(expectation);
             }
             
-            if (period > 0) {
+            if (earliestExpiry != Long.MAX_VALUE || writing) {
+                awaitSatisfactionChange(seenVersion, earliestExpiry);
                 continue;
             }
             
             if (!failedExpectations.isEmpty()) {
-                throw new ClientDriverFailedExpectationException(failedExpectations);
+                throw new ClientDriverFailedExpectationException(new ArrayList<ClientDriverExpectation>(failedExpectations));
             }
             
             break;
         }
     }
     
+    private long currentSatisfactionVersion() {
+        synchronized (satisfactionMonitor) {
+            return satisfactionVersion;
+        }
+    }
+    
+    private void signalSatisfactionChanged() {
+        synchronized (satisfactionMonitor) {
+            satisfactionVersion++;
+            satisfactionMonitor.notifyAll();
+        }
+    }
+    
+    /**
+     * Waits until an expectation is satisfied or removed after the given version was seen, or until the given time.
+     */
+    private void awaitSatisfactionChange(long seenVersion, long until) {
+        synchronized (satisfactionMonitor) {
+            long remaining = until - System.currentTimeMillis();
+            while (satisfactionVersion == seenVersion && remaining > 0) {
+                try {
+                    satisfactionMonitor.wait(remaining);
+                } catch (InterruptedException ie) {
+                    throw new ClientDriverInternalException("Waiting for requests was interrupted", ie);
+                }
+                remaining = until - System.currentTimeMillis();
+            }
+        }
+    }
+    
+    /**
+     * Gets a snapshot of the statistics of this handler. Expectation hits and rejection counts cover every expectation
+     * added since the last reset, including those which have since been satisfied and removed.
+     * 
+     * <p>The counters are striped and the handling time histogram is lock-free, so recording them costs request
+     * threads next to nothing. Reading them sums the stripes, and walks the expectations for their hits and rejection
+     * counts.</p>
+     * 
+     * @return The statistics
+     */
+    public ClientDriverStats getStats() {
+        return new ClientDriverStats(stats, journal, expectationsSinceReset);
+    }
+    
+    /**
+     * Registers this handler's statistics as an MXBean in the platform MBean server while it is started, named
+     * {@code com.github.restdriver.clientdriver:type=ClientDriverStats,id=}<i>n</i>. This must be called before the
+     * handler is started.
+     */
+    public void exposeStatsOverJmx() {
+        statsOverJmx = true;
+    }
+    
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        
+        if (statsOverJmx) {
+            ObjectName name = new ObjectName("com.github.restdriver.clientdriver:type=ClientDriverStats,id=" + NEXT_STATS_ID.incrementAndGet());
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new LiveStats(), name);
+                statsName = name;
+            } catch (JMException e) {
+                LOGGER.warn("Failed to register statistics over JMX", e);
+            }
+        }
+    }
+    
+    @Override
+    protected void doStop() throws Exception {
+        
+        if (statsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(statsName);
+            } catch (JMException e) {
+                LOGGER.warn("Failed to unregister statistics from JMX", e);
+            }
+            statsName = null;
+        }
+        
+        super.doStop();
+    }
+    
     @Override
     public void noFailFastOnUnexpectedRequest() {
         failFastOnUnexpectedRequest = false;
@@ -235,18 +733,16 @@ public final class DefaultClientDriverJettyHandler extends AbstractHandler imple
     
     @Override
     public void reset() {
+        generation.incrementAndGet();
         expectations.clear();
-        matchedResponses.clear();
+        expectationsSinceReset.clear();
+        preparedResponses.clear();
+        responding.clear();
+        matchCache.invalidate();
         unexpectedRequests.clear();
+        journal.reset();
         failFastOnUnexpectedRequest = true;
-    }
-    
-    private void waitFor(long time) {
-        try {
-            Thread.sleep(time);
-        } catch (InterruptedException ie) {
-            throw new ClientDriverInternalException("Waiting for requests was interrupted", ie);
-        }
+        signalSatisfactionChanged();
     }
     
     /**
@@ -262,21 +758,147 @@ public final class DefaultClientDriverJettyHandler extends AbstractHandler imple
     public ClientDriverExpectation addExpectation(ClientDriverRequest request, ClientDriverResponse response) {
         ClientDriverRequestResponsePair pair = new ClientDriverRequestResponsePair(request, response);
         ClientDriverExpectation expectation = new ClientDriverExpectation(pair);
+        
+        // the headers are encoded while the test is still setting up, rather than by whichever request comes first
+        preparedResponses.put(response, new PreparedResponse(response));
+        
         expectations.add(expectation);
+        expectationsSinceReset.add(expectation);
+        matchCache.invalidate();
         return expectation;
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>Only the requests still held in the journal are counted. If any requests since the last reset have been lost
+     * from it then a count no greater than the expected one cannot be trusted, and this fails saying so. A body which
+     * was not read while its request was being handled is only retained up to the journal's
+     * {@link RequestJournal#getMaxRetainedBodyLength() limit}, so likewise the count cannot be trusted if a request
+     * with a body too long to retain would otherwise have been matched against the expected body.</p>
+     * 
+     * <p>With the default matcher only the recorded requests with the expected method and path are looked at, using
+     * the journal's index, and a great many of them are counted in parallel.</p>
+     */
     @Override
     public void verify(ClientDriverRequest request, int times) {
-        int count = 0;
-        for (HttpRealRequest realRequest : requests) {
-            if (matcher.isMatch(realRequest, request)) {
-                count++;
-            }
+        MatchCounter.Count counted = MatchCounter.count(matcher, journalRequestsFor(request), request);
+        int count = counted.getMatched();
+        
+        long lost = journal.getLostCount();
+        
+        if (lost > 0 && count <= times) {
+            throw new RuntimeException(String.format("Unable to verify request times: %s (counted %d of %d expected, but %d earlier requests are no longer in the journal)", request, count, times, lost));
         }
-
+        
+        if (counted.getBodiesNotRetained() > 0 && count <= times) {
+            throw new RuntimeException(String.format("Unable to verify request times: %s (counted %d of %d expected, but %d request bodies were not retained)", request, count, times, counted.getBodiesNotRetained()));
+        }
+        
         if (count != times) {
             throw new RuntimeException(String.format("Incorrect request times: %s", request));
         }
     }
+    
+    private List<HttpRealRequest> journalRequestsFor(ClientDriverRequest request) {
+        
+        // only the default matcher is known to reject on method and path, so other matchers must see every request
+        if (!journalQueryIndexed) {
+            return journal.getRequests();
+        }
+        
+        if (request.getLiteralPath() != null) {
+            return journal.getRequests(request.getMethod(), request.getLiteralPath());
+        }
+        
+        return journal.getRequests(request.getMethod(), request.getPath());
+    }
+    
+    /**
+     * The statistics registered over JMX. Each attribute is read straight from the live counters, so reading one does
+     * not take a snapshot of all the others.
+     */
+    private final class LiveStats implements ClientDriverStatsMXBean {
+        
+        @Override
+        public long getRequests() {
+            return stats.requests.sum();
+        }
+        
+        @Override
+        public long getMatchedRequests() {
+            return stats.matched.sum();
+        }
+        
+        @Override
+        public long getUnmatchedRequests() {
+            return stats.unmatched.sum();
+        }
+        
+        @Override
+        public long getInFlightRequests() {
+            return stats.inFlight.sum();
+        }
+        
+        @Override
+        public long getBytesIn() {
+            return stats.bytesIn.sum();
+        }
+        
+        @Override
+        public long getBytesOut() {
+            return stats.bytesOut.sum();
+        }
+        
+        @Override
+        public int getJournalSize() {
+            return journal.getSize();
+        }
+        
+        @Override
+        public int getJournalCapacity() {
+            return journal.getCapacity();
+        }
+        
+        @Override
+        public long getJournalLostCount() {
+            return journal.getLostCount();
+        }
+        
+        @Override
+        public long getHandlingTimeCount() {
+            return stats.handlingTime.getCount();
+        }
+        
+        @Override
+        public long getHandlingTimeMean() {
+            return stats.handlingTime.getMean();
+        }
+        
+        @Override
+        public long getHandlingTimeMedian() {
+            return stats.handlingTime.getPercentile(0.5);
+        }
+        
+        @Override
+        public long getHandlingTime99thPercentile() {
+            return stats.handlingTime.getPercentile(0.99);
+        }
+        
+        @Override
+        public long getHandlingTimeMax() {
+            return stats.handlingTime.getMax();
+        }
+        
+        @Override
+        public Map<String, Long> getExpectationHits() {
+            return ClientDriverStats.expectationHitsOf(expectationsSinceReset);
+        }
+        
+        @Override
+        public Map<String, Long> getRejectionCounts() {
+            return ClientDriverStats.rejectionCountsOf(expectationsSinceReset);
+        }
+        
+    }
 }
@@ -0,0 +1,298 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.restdriver.clientdriver.ClientDriverExpectation;
+import com.github.restdriver.clientdriver.ClientDriverRequest;
+import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
+import com.github.restdriver.clientdriver.RealRequest;
+import com.github.restdriver.matchers.MatchesRegex;
+
+/**
+ * Holds the expectations of a handler, indexed by HTTP method and literal path, path template or the literal prefix of
+ * a path Pattern, so that an incoming request is only checked against expectations which could possibly match it.
+ * Expectations whose path is any other Matcher go into a fallback bucket which is checked for every request.
+ *
+ * <p>The index listens for changes to the requests of its expectations and counts them, so that a cache of matches
+ * against these expectations can tell when it is stale without being upset by changes to the requests of any other
+ * handler.</p>
+ *
+ * <p>Candidates are always given in the order their expectations were added, so the first registered expectation still
+ * wins. This class is thread-safe without locking: candidates are read from weakly consistent views, so a request sees
+ * every expectation added before it arrived.</p>
+ */
+final class ExpectationIndex {
+
+    private final boolean indexed;
+    private final AtomicLong nextSequence;
+    private final ConcurrentMap<ClientDriverExpectation, Entry> entries;
+    private final ConcurrentNavigableMap<Long, ClientDriverExpectation> all;
+    private final ConcurrentMap<Method, ConcurrentMap<String, ConcurrentNavigableMap<Long, ClientDriverExpectation>>> literalBuckets;
+    private final PathTemplateTree templateTree;
+    private final RegexPrefixTrie regexTrie;
+    private final ConcurrentNavigableMap<Long, ClientDriverExpectation> fallbackBucket;
+    private final AtomicLong requestChanges;
+    private final ClientDriverRequest.ChangeListener changeListener;
+
+    /**
+     * Creates a new index.
+     *
+     * @param indexed
+     *            Whether to bucket expectations by method and literal path or template. This is only safe when the request matcher
+     *            in use rejects any request whose method or path differ from the expected ones; if false then every
+     *            expectation is a candidate for every request.
+     */
+    ExpectationIndex(boolean indexed) {
+        this.indexed = indexed;
+        this.nextSequence = new AtomicLong();
+        this.entries = new ConcurrentHashMap<ClientDriverExpectation, Entry>();
+        this.all = new ConcurrentSkipListMap<Long, ClientDriverExpectation>();
+        this.literalBuckets = new ConcurrentHashMap<Method, ConcurrentMap<String, ConcurrentNavigableMap<Long, ClientDriverExpectation>>>();
+        this.templateTree = new PathTemplateTree();
+        this.regexTrie = new RegexPrefixTrie();
+        this.fallbackBucket = new ConcurrentSkipListMap<Long, ClientDriverExpectation>();
+        this.requestChanges = new AtomicLong();
+        this.changeListener = new ClientDriverRequest.ChangeListener() {
+            @Override
+            public void requestChanged(ClientDriverRequest request) {
+                requestChanges.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Adds an expectation to the index. Its bucket is chosen from the method and path of its request at this point.
+     *
+     * @param expectation
+     *            The expectation to add
+     */
+    void add(ClientDriverExpectation expectation) {
+        ConcurrentNavigableMap<Long, ClientDriverExpectation> bucket = bucketFor(expectation.getPair().getRequest());
+        Entry entry = new Entry(nextSequence.getAndIncrement(), bucket);
+        entries.put(expectation, entry);
+        all.put(entry.sequence, expectation);
+        bucket.put(entry.sequence, expectation);
+        expectation.getPair().getRequest().addChangeListener(changeListener);
+    }
+
+    /**
+     * Removes an expectation from the index. It is safe for several threads to remove the same expectation.
+     *
+     * @param expectation
+     *            The expectation to remove
+     */
+    void remove(ClientDriverExpectation expectation) {
+        Entry entry = entries.remove(expectation);
+        if (entry != null) {
+            entry.bucket.remove(entry.sequence);
+            all.remove(entry.sequence);
+            expectation.getPair().getRequest().removeChangeListener(changeListener);
+        }
+    }
+
+    /**
+     * Gets the expectations which could match the given request, in the order they were added.
+     *
+     * @param request
+     *            The incoming request
+     * @return The candidate expectations
+     */
+    Iterable<ClientDriverExpectation> candidatesFor(RealRequest request) {
+
+        List<Map<Long, ClientDriverExpectation>> buckets = new ArrayList<Map<Long, ClientDriverExpectation>>(4);
+
+        if (indexed && request.getMethod() != null && request.getPath() != null) {
+            Map<String, ConcurrentNavigableMap<Long, ClientDriverExpectation>> bucketsForMethod = literalBuckets.get(request.getMethod());
+            if (bucketsForMethod != null) {
+                Map<Long, ClientDriverExpectation> bucket = bucketsForMethod.get(request.getPath());
+                if (bucket != null) {
+                    buckets.add(bucket);
+                }
+            }
+            templateTree.collectBuckets(request.getMethod(), request.getPath(), buckets);
+            regexTrie.collectBuckets(request.getMethod(), request.getPath(), buckets);
+        }
+
+        buckets.add(fallbackBucket);
+
+        return new MergedCandidates(buckets);
+    }
+
+    /**
+     * @return A snapshot of all expectations, in the order they were added
+     */
+    List<ClientDriverExpectation> asList() {
+        return new ArrayList<ClientDriverExpectation>(all.values());
+    }
+
+    /**
+     * @return The number of changes made so far to the requests of expectations while they were in this index
+     */
+    long getRequestChanges() {
+        return requestChanges.get();
+    }
+
+    boolean isEmpty() {
+        return all.isEmpty();
+    }
+
+    /**
+     * Removes every expectation along with the buckets and nodes made for them, so that an index which outlives many
+     * resets does not keep growing. This must not run at the same time as {@link #add(ClientDriverExpectation)}.
+     */
+    void clear() {
+        for (ClientDriverExpectation expectation : entries.keySet()) {
+            expectation.getPair().getRequest().removeChangeListener(changeListener);
+        }
+        entries.clear();
+        all.clear();
+        literalBuckets.clear();
+        templateTree.clear();
+        regexTrie.clear();
+        fallbackBucket.clear();
+    }
+
+    private ConcurrentNavigableMap<Long, ClientDriverExpectation> bucketFor(ClientDriverRequest request) {
+
+        String literalPath = request.getLiteralPath();
+
+        if (indexed && literalPath == null && request.getPathTemplate() != null) {
+            return templateTree.bucketFor(request.getMethod(), request.getPathTemplate());
+        }
+
+        // subclasses could match differently, so only the regex matcher itself is indexed by prefix
+        if (indexed && literalPath == null && request.getPath().getClass() == MatchesRegex.class) {
+            return regexTrie.bucketFor(request.getMethod(), ((MatchesRegex) request.getPath()).getPattern());
+        }
+
+        if (!indexed || literalPath == null) {
+            return fallbackBucket;
+        }
+
+        ConcurrentMap<String, ConcurrentNavigableMap<Long, ClientDriverExpectation>> bucketsForMethod = literalBuckets.get(request.getMethod());
+        if (bucketsForMethod == null) {
+            ConcurrentMap<String, ConcurrentNavigableMap<Long, ClientDriverExpectation>> created = new ConcurrentHashMap<String, ConcurrentNavigableMap<Long, ClientDriverExpectation>>();
+            bucketsForMethod = literalBuckets.putIfAbsent(request.getMethod(), created);
+            if (bucketsForMethod == null) {
+                bucketsForMethod = created;
+            }
+        }
+
+        ConcurrentNavigableMap<Long, ClientDriverExpectation> bucket = bucketsForMethod.get(literalPath);
+        if (bucket == null) {
+            ConcurrentNavigableMap<Long, ClientDriverExpectation> created = new ConcurrentSkipListMap<Long, ClientDriverExpectation>();
+            bucket = bucketsForMethod.putIfAbsent(literalPath, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+
+        return bucket;
+    }
+
+    private static final class Entry {
+
+        private final long sequence;
+        private final ConcurrentNavigableMap<Long, ClientDriverExpectation> bucket;
+
+        Entry(long sequence, ConcurrentNavigableMap<Long, ClientDriverExpectation> bucket) {
+            this.sequence = sequence;
+            this.bucket = bucket;
+        }
+
+    }
+
+    /**
+     * Lazily merges buckets, each ordered by sequence number, back into registration order.
+     */
+    private static final class MergedCandidates implements Iterable<ClientDriverExpectation> {
+
+        private final List<Map<Long, ClientDriverExpectation>> buckets;
+
+        MergedCandidates(List<Map<Long, ClientDriverExpectation>> buckets) {
+            this.buckets = buckets;
+        }
+
+        @Override
+        public Iterator<ClientDriverExpectation> iterator() {
+
+            final int count = buckets.size();
+            final List<Iterator<Map.Entry<Long, ClientDriverExpectation>>> iterators = new ArrayList<Iterator<Map.Entry<Long, ClientDriverExpectation>>>(count);
+            final List<Map.Entry<Long, ClientDriverExpectation>> heads = new ArrayList<Map.Entry<Long, ClientDriverExpectation>>(count);
+
+            for (Map<Long, ClientDriverExpectation> bucket : buckets) {
+                Iterator<Map.Entry<Long, ClientDriverExpectation>> iterator = bucket.entrySet().iterator();
+                iterators.add(iterator);
+                heads.add(advance(iterator));
+            }
+
+            return new Iterator<ClientDriverExpectation>() {
+
+                @Override
+                public boolean hasNext() {
+                    return lowest() >= 0;
+                }
+
+                @Override
+                public ClientDriverExpectation next() {
+                    int lowest = lowest();
+                    if (lowest < 0) {
+                        throw new NoSuchElementException();
+                    }
+
+                    ClientDriverExpectation result = heads.get(lowest).getValue();
+                    heads.set(lowest, advance(iterators.get(lowest)));
+                    return result;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+                // there are rarely more than a handful of buckets, so a scan beats a heap
+                private int lowest() {
+                    int lowest = -1;
+                    for (int i = 0; i < count; i++) {
+                        Map.Entry<Long, ClientDriverExpectation> head = heads.get(i);
+                        if (head != null && (lowest < 0 || head.getKey() < heads.get(lowest).getKey())) {
+                            lowest = i;
+                        }
+                    }
+                    return lowest;
+                }
+
+            };
+        }
+
+        private static Map.Entry<Long, ClientDriverExpectation> advance(Iterator<Map.Entry<Long, ClientDriverExpectation>> iterator) {
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+    }
+
+}
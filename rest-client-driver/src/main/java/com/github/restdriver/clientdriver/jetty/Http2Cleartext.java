@@ -0,0 +1,39 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+
+/**
+ * Creates the factory of HTTP/2 cleartext connections. It is kept apart from {@link ServerSettings} so that Jetty's
+ * HTTP/2 server, which is an optional dependency, is only loaded by a driver which accepts HTTP/2.
+ */
+final class Http2Cleartext {
+    
+    private Http2Cleartext() {
+    }
+    
+    static ConnectionFactory createConnectionFactory(HttpConfiguration configuration, int maxConcurrentStreams) {
+        HTTP2CServerConnectionFactory http2 = new HTTP2CServerConnectionFactory(configuration);
+        if (maxConcurrentStreams != ServerSettings.DEFAULT) {
+            http2.setMaxConcurrentStreams(maxConcurrentStreams);
+        }
+        return http2;
+    }
+    
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.Validate;
+
+import com.github.restdriver.clientdriver.ClientDriverExpectation;
+import com.github.restdriver.clientdriver.ClientDriverRequest;
+import com.github.restdriver.clientdriver.RealRequest;
+
+/**
+ * A cache from a fingerprint of a request to the expectation it matched, so that a request repeated against
+ * {@link ClientDriverExpectation#anyTimes()} stubs skips matching altogether. The fingerprint is the method, the path,
+ * the query parameters sorted by name and the values of every header which any expectation looks at.
+ *
+ * <p>A match is only cached if every candidate looked at on the way to it is stateless: it matches any number of
+ * times and does not look at the body, so the same fingerprint is bound to give the same result. Everything cached
+ * is dropped whenever the expectations change, or the request of any of them is changed. A cache hit is not counted in
+ * {@link ClientDriverRequest#getRejectionCounts()}.</p>
+ *
+ * <p>This class is thread-safe without locking. A match worked out while the cache was being invalidated is stored in
+ * the generation which was current when it started, which has already been dropped.</p>
+ */
+final class MatchCache {
+
+    private final int capacity;
+    private final ExpectationIndex expectations;
+    private volatile Generation current;
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity
+     *            The number of fingerprints to hold before the cache is emptied and starts again, or 0 to cache nothing
+     * @param expectations
+     *            The expectations which requests are matched against
+     */
+    MatchCache(int capacity, ExpectationIndex expectations) {
+        Validate.isTrue(capacity >= 0, "Match cache capacity must not be negative.");
+        this.capacity = capacity;
+        this.expectations = expectations;
+        this.current = new Generation();
+    }
+
+    /**
+     * @return Whether anything is ever cached
+     */
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Starts a lookup for a request. The returned lookup should be used both to find a cached match and to store a new
+     * one, so that a match is never stored after the cache has been invalidated.
+     *
+     * @param request
+     *            The incoming request
+     * @return The lookup
+     */
+    Lookup lookup(RealRequest request) {
+        Generation generation = current;
+        if (generation.requestChanges != expectations.getRequestChanges()) {
+            // an expected request has changed since this generation began, which may have changed what it matches
+            generation = new Generation();
+            current = generation;
+        }
+        return new Lookup(generation, generation.fingerprintOf(request));
+    }
+
+    /**
+     * Drops everything cached. This must be called whenever an expectation is added, satisfied or removed.
+     */
+    void invalidate() {
+        current = new Generation();
+    }
+
+    /**
+     * Whether the match of an expectation could be cached, as long as every other candidate before it could be too.
+     *
+     * @param expectation
+     *            The candidate expectation
+     * @return True if its result only depends on the fingerprint of a request
+     */
+    static boolean isStateless(ClientDriverExpectation expectation) {
+        ClientDriverRequest request = expectation.getPair().getRequest();
+        return expectation.shouldMatchAnyTimes() && request.getBodyContentMatcher() == null && request.getBodyContentType() == null;
+    }
+
+    /**
+     * A lookup of one request in one generation of the cache.
+     */
+    final class Lookup {
+
+        private final Generation generation;
+        private final List<Object> fingerprint;
+
+        private Lookup(Generation generation, List<Object> fingerprint) {
+            this.generation = generation;
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * @return The expectation which a request with the same fingerprint matched, or null if there is none
+         */
+        ClientDriverExpectation get() {
+            return generation.matches.get(fingerprint);
+        }
+
+        /**
+         * Stores the expectation which the request matched.
+         *
+         * @param expectation
+         *            The matched expectation
+         */
+        void put(ClientDriverExpectation expectation) {
+            if (generation.matches.size() >= capacity) {
+                // a rig sending endless distinct requests would otherwise fill the cache with ones never seen again
+                generation.matches.clear();
+            }
+            generation.matches.put(fingerprint, expectation);
+        }
+
+    }
+
+    private final class Generation {
+
+        private final long requestChanges = expectations.getRequestChanges();
+        private final ConcurrentMap<List<Object>, ClientDriverExpectation> matches = new ConcurrentHashMap<List<Object>, ClientDriverExpectation>();
+        private volatile Set<String> headerNames;
+
+        List<Object> fingerprintOf(RealRequest request) {
+
+            Map<String, List<String>> params = new TreeMap<String, List<String>>();
+            for (Map.Entry<String, Collection<String>> param : request.getParams().entrySet()) {
+                params.put(param.getKey(), new ArrayList<String>(param.getValue()));
+            }
+
+            List<List<String>> headerValues = new ArrayList<List<String>>();
+            for (String headerName : headerNames()) {
+                headerValues.add(request.getHeaderValues(headerName));
+            }
+
+            return Arrays.<Object> asList(request.getMethod(), request.getPath(), params, headerValues);
+        }
+
+        // worked out on first use rather than on every invalidation, which would make adding expectations quadratic
+        private Set<String> headerNames() {
+            Set<String> result = headerNames;
+            if (result == null) {
+                result = new TreeSet<String>();
+                for (ClientDriverExpectation expectation : expectations.asList()) {
+                    ClientDriverRequest request = expectation.getPair().getRequest();
+                    for (String name : request.getHeaders().keySet()) {
+                        result.add(name.toLowerCase(Locale.ENGLISH));
+                    }
+                    for (String name : request.getExcludedHeaders()) {
+                        result.add(name.toLowerCase(Locale.ENGLISH));
+                    }
+                }
+                headerNames = result;
+            }
+            return result;
+        }
+
+    }
+
+}
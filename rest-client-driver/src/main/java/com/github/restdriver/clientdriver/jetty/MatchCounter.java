@@ -0,0 +1,147 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.github.restdriver.clientdriver.ClientDriverRequest;
+import com.github.restdriver.clientdriver.DefaultRequestMatcher;
+import com.github.restdriver.clientdriver.HttpRealRequest;
+import com.github.restdriver.clientdriver.RequestMatcher;
+
+/**
+ * Counts the recorded requests which match an expected request. A long list is split in halves which are counted in
+ * parallel on the common fork-join pool, since each request is matched independently of the others. That is only done
+ * with the default matcher, for an expected request whose matchers are all plain built-in ones, since any other matcher
+ * may not be safe to use from several threads at once. The default matcher is used quietly, since the requests had
+ * their rejections recorded and logged when they were handled.
+ *
+ * <p>A request whose body was not retained cannot be matched against an expected body. Such requests are counted
+ * separately rather than failing the whole count.</p>
+ */
+final class MatchCounter extends RecursiveTask<MatchCounter.Count> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of requests below which a list is counted on the calling thread.
+     */
+    static final int PARALLEL_THRESHOLD = 8192;
+
+    private final transient RequestMatcher matcher;
+    private final transient List<HttpRealRequest> requests;
+    private final transient ClientDriverRequest expectedRequest;
+
+    private MatchCounter(RequestMatcher matcher, List<HttpRealRequest> requests, ClientDriverRequest expectedRequest) {
+        this.matcher = matcher;
+        this.requests = requests;
+        this.expectedRequest = expectedRequest;
+    }
+
+    /**
+     * Counts the requests which match.
+     *
+     * @param matcher
+     *            The matcher to match with
+     * @param requests
+     *            The recorded requests, which must support fast random access
+     * @param expectedRequest
+     *            The expected request
+     * @return The number of requests which match, and of those which could not be matched
+     */
+    static Count count(RequestMatcher matcher, List<HttpRealRequest> requests, ClientDriverRequest expectedRequest) {
+        if (requests.size() < PARALLEL_THRESHOLD || !(matcher instanceof DefaultRequestMatcher) || !((DefaultRequestMatcher) matcher).canMatchConcurrently(expectedRequest)) {
+            return countSequentially(matcher, requests, expectedRequest);
+        }
+        return ForkJoinPool.commonPool().invoke(new MatchCounter(matcher, requests, expectedRequest));
+    }
+
+    @Override
+    protected Count compute() {
+
+        if (requests.size() < PARALLEL_THRESHOLD) {
+            return countSequentially(matcher, requests, expectedRequest);
+        }
+
+        int middle = requests.size() / 2;
+        MatchCounter firstHalf = new MatchCounter(matcher, requests.subList(0, middle), expectedRequest);
+        MatchCounter secondHalf = new MatchCounter(matcher, requests.subList(middle, requests.size()), expectedRequest);
+
+        firstHalf.fork();
+        return secondHalf.compute().plus(firstHalf.join());
+    }
+
+    private static Count countSequentially(RequestMatcher matcher, List<HttpRealRequest> requests, ClientDriverRequest expectedRequest) {
+        int matched = 0;
+        int bodiesNotRetained = 0;
+        for (HttpRealRequest request : requests) {
+            try {
+                if (isMatch(matcher, request, expectedRequest)) {
+                    matched++;
+                }
+            } catch (IllegalStateException e) {
+                if (request.isBodyRetained()) {
+                    throw e;
+                }
+                bodiesNotRetained++;
+            }
+        }
+        return new Count(matched, bodiesNotRetained);
+    }
+
+    private static boolean isMatch(RequestMatcher matcher, HttpRealRequest request, ClientDriverRequest expectedRequest) {
+        if (matcher instanceof DefaultRequestMatcher) {
+            return ((DefaultRequestMatcher) matcher).isMatchQuietly(request, expectedRequest);
+        }
+        return matcher.isMatch(request, expectedRequest);
+    }
+
+    /**
+     * The outcome of a count.
+     */
+    static final class Count {
+
+        private final int matched;
+        private final int bodiesNotRetained;
+
+        Count(int matched, int bodiesNotRetained) {
+            this.matched = matched;
+            this.bodiesNotRetained = bodiesNotRetained;
+        }
+
+        /**
+         * @return The number of requests which matched
+         */
+        int getMatched() {
+            return matched;
+        }
+
+        /**
+         * @return The number of requests which would have had their body matched, but whose body was not retained
+         */
+        int getBodiesNotRetained() {
+            return bodiesNotRetained;
+        }
+
+        Count plus(Count other) {
+            return new Count(matched + other.matched, bodiesNotRetained + other.bodiesNotRetained);
+        }
+
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.restdriver.clientdriver.ClientDriverExpectation;
+import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
+import com.github.restdriver.clientdriver.PathTemplate;
+
+/**
+ * A tree of the segments of path templates, with a bucket of expectations for each method at the node where a template
+ * ends. Templates which share a prefix share its nodes, so finding the templates which match a path walks one node
+ * per segment rather than trying every template in turn. Literal segments are hash lookups, and a path only branches
+ * where a variable and a literal could both match the same segment.
+ * 
+ * <p>Nodes and buckets are created as templates are added and are only removed when the whole tree is cleared, like the
+ * literal buckets of {@link ExpectationIndex}. This class is thread-safe without locking.</p>
+ */
+final class PathTemplateTree {
+    
+    private final Node root = new Node();
+    
+    /**
+     * Gets the bucket for a template and method, creating it if need be.
+     * 
+     * @param method
+     *            The expected method
+     * @param template
+     *            The expected path template
+     * @return The bucket
+     */
+    ConcurrentNavigableMap<Long, ClientDriverExpectation> bucketFor(Method method, PathTemplate template) {
+        
+        Node node = root;
+        for (String literal : template.getLiteralSegments()) {
+            node = literal != null ? node.literalChild(literal) : node.variableChild();
+        }
+        
+        return node.bucketFor(method);
+    }
+    
+    /**
+     * Removes every node and bucket, leaving an empty tree.
+     */
+    void clear() {
+        root.literalChildren.clear();
+        root.variableChild.set(null);
+        root.buckets.clear();
+    }
+    
+    /**
+     * Adds the buckets of every template which matches a path to a list.
+     * 
+     * @param method
+     *            The method of the request
+     * @param path
+     *            The path of the request
+     * @param buckets
+     *            The list to add the buckets to
+     */
+    void collectBuckets(Method method, String path, List<Map<Long, ClientDriverExpectation>> buckets) {
+        collectBuckets(root, path.split("/", -1), 0, method, buckets);
+    }
+    
+    private static void collectBuckets(Node node, String[] segments, int depth, Method method, List<Map<Long, ClientDriverExpectation>> buckets) {
+        
+        if (depth == segments.length) {
+            Map<Long, ClientDriverExpectation> bucket = node.buckets.get(method);
+            if (bucket != null && !bucket.isEmpty()) {
+                buckets.add(bucket);
+            }
+            return;
+        }
+        
+        Node literalChild = node.literalChildren.get(segments[depth]);
+        if (literalChild != null) {
+            collectBuckets(literalChild, segments, depth + 1, method, buckets);
+        }
+        
+        Node variableChild = node.variableChild.get();
+        if (variableChild != null && !segments[depth].isEmpty()) {
+            collectBuckets(variableChild, segments, depth + 1, method, buckets);
+        }
+    }
+    
+    private static final class Node {
+        
+        private final ConcurrentMap<String, Node> literalChildren = new ConcurrentHashMap<String, Node>();
+        private final AtomicReference<Node> variableChild = new AtomicReference<Node>();
+        private final ConcurrentMap<Method, ConcurrentNavigableMap<Long, ClientDriverExpectation>> buckets = new ConcurrentHashMap<Method, ConcurrentNavigableMap<Long, ClientDriverExpectation>>();
+        
+        Node literalChild(String literal) {
+            Node child = literalChildren.get(literal);
+            if (child == null) {
+                Node created = new Node();
+                child = literalChildren.putIfAbsent(literal, created);
+                if (child == null) {
+                    child = created;
+                }
+            }
+            return child;
+        }
+        
+        Node variableChild() {
+            Node child = variableChild.get();
+            if (child == null) {
+                variableChild.compareAndSet(null, new Node());
+                child = variableChild.get();
+            }
+            return child;
+        }
+        
+        ConcurrentNavigableMap<Long, ClientDriverExpectation> bucketFor(Method method) {
+            ConcurrentNavigableMap<Long, ClientDriverExpectation> bucket = buckets.get(method);
+            if (bucket == null) {
+                ConcurrentNavigableMap<Long, ClientDriverExpectation> created = new ConcurrentSkipListMap<Long, ClientDriverExpectation>();
+                bucket = buckets.putIfAbsent(method, created);
+                if (bucket == null) {
+                    bucket = created;
+                }
+            }
+            return bucket;
+        }
+        
+    }
+    
+}
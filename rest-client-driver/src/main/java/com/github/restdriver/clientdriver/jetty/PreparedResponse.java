@@ -0,0 +1,167 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.PreEncodedHttpField;
+
+import com.github.restdriver.RestDriverProperties;
+import com.github.restdriver.clientdriver.ClientDriverResponse;
+
+/**
+ * The wire form of a {@link ClientDriverResponse}: its status and content type, its other headers already encoded for
+ * Jetty, and its body in a read-only direct buffer, which Jetty can write to the socket without copying it first. It is immutable, so it can be written by any number of threads at once
+ * with almost no allocation per request.
+ */
+final class PreparedResponse {
+    
+    private static final HttpField SERVER = new PreEncodedHttpField(HttpHeader.SERVER, "rest-client-driver(" + RestDriverProperties.getVersion() + ")");
+    
+    private final int revision;
+    private final int status;
+    private final String contentType;
+    private final long contentLength;
+    private final List<HttpField> fields;
+    private final ByteBuffer body;
+    
+    /**
+     * Prepares the wire form of a response as it currently stands. A body served from a file is left where it is.
+     * 
+     * @param response
+     *            The response to prepare
+     */
+    PreparedResponse(ClientDriverResponse response) {
+        
+        revision = response.getRevision();
+        status = response.getStatus();
+        
+        // putting each field replaces any of the same name, so a header set on the response overrides the default
+        HttpFields allFields = new HttpFields();
+        allFields.put(SERVER);
+        for (Entry<String, String> header : response.getHeaders().entrySet()) {
+            allFields.put(fieldFor(header.getKey(), header.getValue()));
+        }
+        
+        // the servlet response keeps track of its own type and length, so those are given to it rather than written as
+        // fields, and a Content-Type header overrides the content type as it does when the headers are set one by one
+        String type = response.getContentType();
+        long length = -1;
+        List<HttpField> fieldList = new ArrayList<HttpField>(allFields.size());
+        for (HttpField field : allFields) {
+            if (field.getHeader() == HttpHeader.CONTENT_TYPE) {
+                type = field.getValue();
+            } else if (field.getHeader() == HttpHeader.CONTENT_LENGTH && isLength(field.getValue())) {
+                length = Long.parseLong(field.getValue().trim());
+            } else {
+                fieldList.add(field);
+            }
+        }
+        contentType = type;
+        contentLength = length;
+        fields = Collections.unmodifiableList(fieldList);
+        
+        if (response.getFile() == null && response.hasBody()) {
+            body = directReadOnly(response.getContentAsBytes());
+        } else {
+            body = null;
+        }
+    }
+    
+    private static ByteBuffer directReadOnly(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+    
+    private static HttpField fieldFor(String name, String value) {
+        
+        // only headers Jetty knows by name can be pre-encoded; any other is encoded as it is written
+        HttpHeader header = HttpHeader.CACHE.get(name);
+        
+        if (header != null) {
+            return new PreEncodedHttpField(header, name, value);
+        } else {
+            return new HttpField(name, value);
+        }
+    }
+    
+    private static boolean isLength(String value) {
+        return value != null && value.trim().matches("[0-9]{1,18}");
+    }
+    
+    /**
+     * @param response
+     *            The response this was prepared from
+     * @return Whether the response has not been changed since this was prepared from it
+     */
+    boolean isCurrentFor(ClientDriverResponse response) {
+        return response.getRevision() == revision;
+    }
+    
+    /**
+     * @return The status code
+     */
+    int getStatus() {
+        return status;
+    }
+    
+    /**
+     * @return The content type, or null if there is none
+     */
+    String getContentType() {
+        return contentType;
+    }
+    
+    /**
+     * @return The length given in a Content-Length header of the response, or -1 if it gave none
+     */
+    long getContentLength() {
+        return contentLength;
+    }
+    
+    /**
+     * @return The pre-encoded header fields, other than Content-Type and Content-Length
+     */
+    List<HttpField> getFields() {
+        return fields;
+    }
+    
+    /**
+     * @return Whether there is an in-memory body to send
+     */
+    boolean hasBody() {
+        return body != null;
+    }
+    
+    /**
+     * Gets the body for sending. Each call gives a new view of the same memory, so each has its own position.
+     * 
+     * @return The body, or null if there is no in-memory body
+     */
+    ByteBuffer getBody() {
+        return body != null ? body.duplicate() : null;
+    }
+    
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+import com.github.restdriver.clientdriver.ClientDriverExpectation;
+import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
+
+/**
+ * A trie of the literal prefixes of path regexes, with a bucket of expectations for each method at the node where a
+ * prefix ends. Any path matching a regex must start with its literal prefix, so walking the path down the trie finds
+ * every regex which could match it, and the rest are rejected without running the regex engine at all.
+ * 
+ * <p>A regex whose prefix cannot be worked out safely, because it uses flags or alternation, has an empty prefix and
+ * is a candidate for every path. Nodes and buckets are only removed when the whole trie is cleared, like the literal
+ * buckets of {@link ExpectationIndex}. This class is thread-safe without locking.</p>
+ */
+final class RegexPrefixTrie {
+    
+    private static final String METACHARACTERS = "\\[](){}.*+?^$|";
+    private static final String QUANTIFIERS = "*+?{";
+    
+    private final Node root = new Node();
+    
+    /**
+     * Gets the bucket for a regex and method, creating it if need be.
+     * 
+     * @param method
+     *            The expected method
+     * @param pattern
+     *            The expected path regex
+     * @return The bucket
+     */
+    ConcurrentNavigableMap<Long, ClientDriverExpectation> bucketFor(Method method, Pattern pattern) {
+        
+        String prefix = literalPrefixOf(pattern);
+        
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        
+        return node.bucketFor(method);
+    }
+    
+    /**
+     * Removes every node and bucket, leaving an empty trie.
+     */
+    void clear() {
+        root.children.clear();
+        root.buckets.clear();
+    }
+    
+    /**
+     * Adds the buckets of every regex whose literal prefix the path starts with to a list.
+     * 
+     * @param method
+     *            The method of the request
+     * @param path
+     *            The path of the request
+     * @param buckets
+     *            The list to add the buckets to
+     */
+    void collectBuckets(Method method, String path, List<Map<Long, ClientDriverExpectation>> buckets) {
+        
+        Node node = root;
+        int depth = 0;
+        
+        while (node != null) {
+            Map<Long, ClientDriverExpectation> bucket = node.buckets.get(method);
+            if (bucket != null && !bucket.isEmpty()) {
+                buckets.add(bucket);
+            }
+            node = depth < path.length() ? node.children.get(path.charAt(depth++)) : null;
+        }
+    }
+    
+    /**
+     * Works out the text which every string matching a regex in full must start with.
+     * 
+     * @param pattern
+     *            The regex
+     * @return The literal prefix, which may be empty
+     */
+    static String literalPrefixOf(Pattern pattern) {
+        
+        String regex = pattern.pattern();
+        
+        if (pattern.flags() != 0 || hasTopLevelAlternation(regex)) {
+            return "";
+        }
+        
+        StringBuilder prefix = new StringBuilder();
+        int i = regex.startsWith("^") ? 1 : 0;
+        
+        while (i < regex.length()) {
+            
+            char c = regex.charAt(i);
+            char literal;
+            int next;
+            
+            if (c == '\\' && i + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                literal = regex.charAt(i + 1);
+                next = i + 2;
+            } else if (METACHARACTERS.indexOf(c) < 0) {
+                literal = c;
+                next = i + 1;
+            } else {
+                break;
+            }
+            
+            // a quantified character may be repeated or left out, so it ends the prefix without being part of it
+            if (next < regex.length() && QUANTIFIERS.indexOf(regex.charAt(next)) >= 0) {
+                break;
+            }
+            
+            prefix.append(literal);
+            i = next;
+        }
+        
+        return prefix.toString();
+    }
+    
+    private static boolean hasTopLevelAlternation(String regex) {
+        
+        int depth = 0;
+        boolean inClass = false;
+        
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    private static final class Node {
+        
+        private final ConcurrentMap<Character, Node> children = new ConcurrentHashMap<Character, Node>();
+        private final ConcurrentMap<Method, ConcurrentNavigableMap<Long, ClientDriverExpectation>> buckets = new ConcurrentHashMap<Method, ConcurrentNavigableMap<Long, ClientDriverExpectation>>();
+        
+        Node child(char c) {
+            Node child = children.get(c);
+            if (child == null) {
+                Node created = new Node();
+                child = children.putIfAbsent(c, created);
+                if (child == null) {
+                    child = created;
+                }
+            }
+            return child;
+        }
+        
+        ConcurrentNavigableMap<Long, ClientDriverExpectation> bucketFor(Method method) {
+            ConcurrentNavigableMap<Long, ClientDriverExpectation> bucket = buckets.get(method);
+            if (bucket == null) {
+                ConcurrentNavigableMap<Long, ClientDriverExpectation> created = new ConcurrentSkipListMap<Long, ClientDriverExpectation>();
+                bucket = buckets.putIfAbsent(method, created);
+                if (bucket == null) {
+                    bucket = created;
+                }
+            }
+            return bucket;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,396 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.lang.Validate;
+import org.hamcrest.Matcher;
+
+import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
+import com.github.restdriver.clientdriver.HttpRealRequest;
+
+/**
+ * A bounded journal of the requests a handler has received, kept in a ring buffer which is allocated up front.
+ * Recording is lock-free, and resetting is a constant-time generation bump rather than a clear: requests from before
+ * the reset are simply no longer visible.
+ *
+ * <p>The requests are also indexed by method and path as they are recorded, so that the requests for one endpoint can
+ * be found without looking at all the others. A request leaves the index when its slot in the ring buffer is reused,
+ * so the index never holds more than the journal does.</p>
+ */
+public final class RequestJournal {
+
+    /**
+     * What to do with a new request once the journal is full.
+     */
+    public enum EvictionPolicy {
+
+        /**
+         * Overwrite the oldest retained request, so the journal always holds the most recent ones.
+         */
+        EVICT_OLDEST,
+
+        /**
+         * Don't record the new request, so the journal always holds the first ones since it was last reset.
+         */
+        DISCARD_NEWEST
+
+    }
+
+    /**
+     * The number of requests a journal retains unless told otherwise.
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /**
+     * The length in bytes of the longest unread request body a journal retains unless told otherwise.
+     */
+    public static final int DEFAULT_MAX_RETAINED_BODY_LENGTH = 64 * 1024;
+
+    private static final Object MISSING = new Object();
+
+    private final int capacity;
+    private final int maxRetainedBodyLength;
+    private final EvictionPolicy evictionPolicy;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong written;
+    private final AtomicLong discarded;
+    private final ConcurrentMap<Object, ConcurrentMap<Object, Partition>> partitionsByMethod = new ConcurrentHashMap<Object, ConcurrentMap<Object, Partition>>();
+    private volatile long generationStart;
+    private volatile long discardedAtGenerationStart;
+
+    /**
+     * Creates a journal of the default capacity, which evicts the oldest requests.
+     */
+    public RequestJournal() {
+        this(DEFAULT_CAPACITY, EvictionPolicy.EVICT_OLDEST);
+    }
+
+    /**
+     * Creates a journal.
+     *
+     * @param capacity
+     *            The maximum number of requests to retain
+     * @param evictionPolicy
+     *            What to do with new requests once the journal is full
+     */
+    public RequestJournal(int capacity, EvictionPolicy evictionPolicy) {
+        this(capacity, evictionPolicy, DEFAULT_MAX_RETAINED_BODY_LENGTH);
+    }
+
+    /**
+     * Creates a journal which retains unread request bodies up to the given length.
+     *
+     * @param capacity
+     *            The maximum number of requests to retain
+     * @param evictionPolicy
+     *            What to do with new requests once the journal is full
+     * @param maxRetainedBodyLength
+     *            The length in bytes of the longest request body to retain if no expectation read it while the request
+     *            was being handled
+     */
+    public RequestJournal(int capacity, EvictionPolicy evictionPolicy, int maxRetainedBodyLength) {
+        Validate.isTrue(capacity > 0, "Journal capacity must be positive.");
+        Validate.notNull(evictionPolicy, "Eviction policy is not set.");
+        Validate.isTrue(maxRetainedBodyLength >= 0, "Maximum retained body length must not be negative.");
+
+        this.capacity = capacity;
+        this.maxRetainedBodyLength = maxRetainedBodyLength;
+        this.evictionPolicy = evictionPolicy;
+        this.slots = new AtomicReferenceArray<Entry>(capacity);
+        this.written = new AtomicLong();
+        this.discarded = new AtomicLong();
+    }
+
+    /**
+     * Records a request, evicting or discarding according to the policy if the journal is full.
+     *
+     * @param request
+     *            The request to record
+     */
+    public void record(HttpRealRequest request) {
+
+        long sequence;
+
+        if (evictionPolicy == EvictionPolicy.EVICT_OLDEST) {
+            sequence = written.getAndIncrement();
+        } else {
+            do {
+                sequence = written.get();
+                if (sequence - generationStart >= capacity) {
+                    discarded.incrementAndGet();
+                    return;
+                }
+            } while (!written.compareAndSet(sequence, sequence + 1));
+        }
+
+        Entry entry = new Entry(sequence, request);
+        addToIndex(entry);
+
+        Entry replaced = slots.getAndSet(slotFor(sequence), entry);
+        if (replaced != null) {
+            replaced.partition.remove(replaced);
+        }
+    }
+
+    /**
+     * Gets the requests retained since the last reset, oldest first. Requests which are still being recorded by
+     * another thread may be missing.
+     *
+     * @return A snapshot of the retained requests
+     */
+    public List<HttpRealRequest> getRequests() {
+
+        long end = written.get();
+        long start = Math.max(generationStart, end - capacity);
+
+        List<HttpRealRequest> requests = new ArrayList<HttpRealRequest>((int) (end - start));
+
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry entry = slots.get(slotFor(sequence));
+            if (entry != null && entry.sequence == sequence) {
+                requests.add(entry.request);
+            }
+        }
+
+        return requests;
+    }
+
+    /**
+     * Gets the requests retained since the last reset which have the given method and path. Requests which are still
+     * being recorded by another thread may be missing.
+     *
+     * @param method
+     *            The method of the requests
+     * @param path
+     *            The path of the requests
+     * @return A snapshot of the requests, oldest first
+     */
+    public List<HttpRealRequest> getRequests(Method method, String path) {
+
+        ConcurrentMap<Object, Partition> partitions = partitionsByMethod.get(keyOf(method));
+        Partition partition = partitions == null ? null : partitions.get(keyOf(path));
+
+        if (partition == null) {
+            return Collections.emptyList();
+        }
+
+        List<HttpRealRequest> requests = new ArrayList<HttpRealRequest>();
+        partition.addLiveRequests(requests);
+        return requests;
+    }
+
+    /**
+     * Gets the requests retained since the last reset which have the given method and a path the given matcher
+     * accepts. The matcher is only tried once against each distinct path. Requests which are still being recorded by
+     * another thread may be missing.
+     *
+     * @param method
+     *            The method of the requests
+     * @param path
+     *            The matcher of their paths
+     * @return A snapshot of the requests, oldest first for each path but in no particular order between paths
+     */
+    public List<HttpRealRequest> getRequests(Method method, Matcher<? extends String> path) {
+
+        ConcurrentMap<Object, Partition> partitions = partitionsByMethod.get(keyOf(method));
+
+        if (partitions == null) {
+            return Collections.emptyList();
+        }
+
+        List<HttpRealRequest> requests = new ArrayList<HttpRealRequest>();
+        for (Partition partition : partitions.values()) {
+            // a request with no path is left for the caller to judge, as the matcher may not expect null
+            if (partition.path == null || path.matches(partition.path)) {
+                partition.addLiveRequests(requests);
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Gets the number of requests received since the last reset which the journal no longer holds, whether they were
+     * evicted or never recorded. Any count made over the journal is incomplete if this is not zero.
+     *
+     * @return The number of lost requests
+     */
+    public long getLostCount() {
+        if (evictionPolicy == EvictionPolicy.EVICT_OLDEST) {
+            return Math.max(0, written.get() - generationStart - capacity);
+        } else {
+            return discarded.get() - discardedAtGenerationStart;
+        }
+    }
+
+    /**
+     * Gets the number of requests the journal holds. This counts slots written since the last reset up to the
+     * capacity, so while requests are being recorded it may include some whose entries are not yet visible.
+     *
+     * @return The number of requests retained since the last reset
+     */
+    public int getSize() {
+        return (int) Math.min(written.get() - generationStart, capacity);
+    }
+
+    /**
+     * @return The maximum number of requests retained
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The length in bytes of the longest unread request body retained
+     */
+    public int getMaxRetainedBodyLength() {
+        return maxRetainedBodyLength;
+    }
+
+    /**
+     * @return What happens to new requests once the journal is full
+     */
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * Hides every request recorded so far by starting a new generation.
+     */
+    public void reset() {
+        discardedAtGenerationStart = discarded.get();
+        generationStart = written.get();
+    }
+
+    private int slotFor(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    private boolean isLive(Entry entry) {
+        long end = written.get();
+        return entry.sequence >= Math.max(generationStart, end - capacity) && entry.sequence < end
+                && slots.get(slotFor(entry.sequence)) == entry;
+    }
+
+    private void addToIndex(Entry entry) {
+
+        Object methodKey = keyOf(entry.request.getMethod());
+        Object pathKey = keyOf(entry.request.getPath());
+
+        ConcurrentMap<Object, Partition> partitions = partitionsByMethod.get(methodKey);
+        if (partitions == null) {
+            ConcurrentMap<Object, Partition> created = new ConcurrentHashMap<Object, Partition>();
+            partitions = partitionsByMethod.putIfAbsent(methodKey, created);
+            if (partitions == null) {
+                partitions = created;
+            }
+        }
+
+        // a partition which has just emptied is dead and on its way out of the map, so a fresh one is made
+        while (true) {
+            Partition partition = partitions.get(pathKey);
+            if (partition == null) {
+                Partition created = new Partition(partitions, pathKey, entry.request.getPath());
+                partition = partitions.putIfAbsent(pathKey, created);
+                if (partition == null) {
+                    partition = created;
+                }
+            }
+            if (partition.add(entry)) {
+                return;
+            }
+        }
+    }
+
+    // neither a method nor a path can be a map key if it is missing, and a missing path is not the same as an empty one
+    private static Object keyOf(Object value) {
+        return value == null ? MISSING : value;
+    }
+
+    private static final class Entry {
+
+        private final long sequence;
+        private final HttpRealRequest request;
+        private Partition partition;
+
+        Entry(long sequence, HttpRealRequest request) {
+            this.sequence = sequence;
+            this.request = request;
+        }
+
+    }
+
+    /**
+     * The requests with one method and path, oldest first. Only the requests for the same endpoint contend for its
+     * lock.
+     */
+    private final class Partition {
+
+        private final ConcurrentMap<Object, Partition> partitions;
+        private final Object key;
+        private final String path;
+        private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+        private boolean dead;
+
+        Partition(ConcurrentMap<Object, Partition> partitions, Object key, String path) {
+            this.partitions = partitions;
+            this.key = key;
+            this.path = path;
+        }
+
+        synchronized boolean add(Entry entry) {
+            if (dead) {
+                return false;
+            }
+            entry.partition = this;
+            entries.addLast(entry);
+            return true;
+        }
+
+        synchronized void remove(Entry entry) {
+
+            // the entry being replaced is almost always the oldest
+            if (entries.peekFirst() == entry) {
+                entries.pollFirst();
+            } else {
+                entries.remove(entry);
+            }
+
+            if (entries.isEmpty()) {
+                dead = true;
+                partitions.remove(key, this);
+            }
+        }
+
+        synchronized void addLiveRequests(List<HttpRealRequest> requests) {
+            for (Entry entry : entries) {
+                if (isLive(entry)) {
+                    requests.add(entry.request);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang.Validate;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.restdriver.clientdriver.exception.ClientDriverSetupException;
+
+/**
+ * How the Jetty server behind a client driver handles its connections and requests. Anything which is not set is
+ * left to Jetty's defaults.
+ */
+public final class ServerSettings {
+
+    /**
+     * The value of any count which is left to Jetty to choose.
+     */
+    public static final int DEFAULT = -1;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServerSettings.class);
+    private static final int JETTY_MAX_THREADS = 200;
+    private static final int JETTY_MIN_THREADS = 8;
+
+    private ThreadPool threadPool;
+    private int minThreads = DEFAULT;
+    private int maxThreads = DEFAULT;
+    private int acceptors = DEFAULT;
+    private int selectors = DEFAULT;
+    private boolean virtualThreads;
+    private boolean http2Cleartext;
+    private int http2MaxConcurrentStreams = DEFAULT;
+
+    /**
+     * Sets the thread pool to handle requests on, instead of one created for each server. A pool which is already
+     * running when the server starts is left running when it stops, so one pool can be shared by several drivers.
+     *
+     * @param threadPool
+     *            the thread pool
+     * @return the settings object
+     */
+    public ServerSettings threadPool(ThreadPool threadPool) {
+        this.threadPool = threadPool;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads kept in the pool created for each server when it is idle.
+     *
+     * @param minThreads
+     *            the minimum number of threads
+     * @return the settings object
+     */
+    public ServerSettings minThreads(int minThreads) {
+        Validate.isTrue(minThreads >= 0, "Minimum threads must not be negative.");
+        this.minThreads = minThreads;
+        return this;
+    }
+
+    /**
+     * Sets the most threads the pool created for each server may grow to. This must leave room for the acceptor and
+     * selector threads as well as the requests being handled.
+     *
+     * @param maxThreads
+     *            the maximum number of threads
+     * @return the settings object
+     */
+    public ServerSettings maxThreads(int maxThreads) {
+        Validate.isTrue(maxThreads > 0, "Maximum threads must be positive.");
+        this.maxThreads = maxThreads;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads accepting connections.
+     *
+     * @param acceptors
+     *            the number of acceptor threads
+     * @return the settings object
+     */
+    public ServerSettings acceptors(int acceptors) {
+        Validate.isTrue(acceptors >= 0, "Acceptors must not be negative.");
+        this.acceptors = acceptors;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads selecting connections with data to read or room to write.
+     *
+     * @param selectors
+     *            the number of selector threads
+     * @return the settings object
+     */
+    public ServerSettings selectors(int selectors) {
+        Validate.isTrue(selectors > 0, "Selectors must be positive.");
+        this.selectors = selectors;
+        return this;
+    }
+
+    /**
+     * Handles every request on a virtual thread of its own, so the number of requests in progress at once is not
+     * limited by a pool of platform threads. The server keeps its pool of platform threads, which then only accepts
+     * and selects connections. If the JVM has no virtual threads then a warning is logged and requests are handled
+     * on that pool as usual.
+     *
+     * @return the settings object
+     */
+    public ServerSettings virtualThreads() {
+        this.virtualThreads = true;
+        return this;
+    }
+
+    /**
+     * Accepts HTTP/2 without TLS (h2c) as well as HTTP/1.1, whether by prior knowledge or by upgrading an HTTP/1.1
+     * request. Each stream is matched against the expectations as a request of its own. This cannot be used with a
+     * {@link com.github.restdriver.clientdriver.SecureClientDriver}. Jetty's HTTP/2 server,
+     * {@code org.eclipse.jetty.http2:http2-server}, is an optional dependency which must then be on the classpath.
+     *
+     * @return the settings object
+     */
+    public ServerSettings http2Cleartext() {
+        this.http2Cleartext = true;
+        return this;
+    }
+
+    /**
+     * Sets the most HTTP/2 streams a client may have open at once on one connection.
+     *
+     * @param http2MaxConcurrentStreams
+     *            the maximum number of concurrent streams
+     * @return the settings object
+     */
+    public ServerSettings http2MaxConcurrentStreams(int http2MaxConcurrentStreams) {
+        Validate.isTrue(http2MaxConcurrentStreams > 0, "Maximum concurrent streams must be positive.");
+        this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+        return this;
+    }
+
+    /**
+     * Creates the thread pool for a new server.
+     *
+     * @return The thread pool, which is the supplied one if there is one
+     */
+    public ThreadPool createThreadPool() {
+
+        if (threadPool != null) {
+            return threadPool;
+        }
+
+        int max = maxThreads == DEFAULT ? JETTY_MAX_THREADS : maxThreads;
+        int min = minThreads == DEFAULT ? JETTY_MIN_THREADS : minThreads;
+        return new QueuedThreadPool(max, Math.min(min, max));
+    }
+
+    /**
+     * Creates the handler a new server is given, which hands each request over to a virtual thread if they are to be
+     * used and the JVM has them.
+     *
+     * @param handler
+     *            The handler of the requests
+     * @return The handler for the server, which is the given one if requests are handled on the server's own threads
+     */
+    public Handler createServerHandler(Handler handler) {
+
+        if (virtualThreads) {
+            ExecutorService executor = newVirtualThreadPerTaskExecutor();
+            if (executor != null) {
+                return new VirtualThreadHandler(handler, executor);
+            }
+        }
+
+        return handler;
+    }
+
+    /**
+     * Creates the factories of the connections a new connector accepts, without TLS.
+     *
+     * @return The connection factories, HTTP/1.1 first
+     * @throws ClientDriverSetupException
+     *             if HTTP/2 is to be accepted but Jetty's HTTP/2 server is not on the classpath
+     */
+    public ConnectionFactory[] createCleartextConnectionFactories() {
+
+        HttpConfiguration configuration = new HttpConfiguration();
+        HttpConnectionFactory http1 = new HttpConnectionFactory(configuration);
+
+        if (!http2Cleartext) {
+            return new ConnectionFactory[] { http1 };
+        }
+
+        try {
+            return new ConnectionFactory[] { http1, Http2Cleartext.createConnectionFactory(configuration, http2MaxConcurrentStreams) };
+        } catch (NoClassDefFoundError e) {
+            throw new ClientDriverSetupException("Accepting HTTP/2 needs org.eclipse.jetty.http2:http2-server on the classpath", e);
+        }
+    }
+
+    /**
+     * @return Whether HTTP/2 without TLS is accepted
+     */
+    public boolean isHttp2Cleartext() {
+        return http2Cleartext;
+    }
+
+    /**
+     * @return The number of acceptor threads, or {@link #DEFAULT}
+     */
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    /**
+     * @return The number of selector threads, or {@link #DEFAULT}
+     */
+    public int getSelectors() {
+        return selectors;
+    }
+
+    // virtual threads only exist from Java 21, and this is built for older JVMs, so they can only be found reflectively
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warn("Virtual threads are not available in this JVM, so requests will be handled on a pool of platform threads");
+            return null;
+        }
+    }
+
+}
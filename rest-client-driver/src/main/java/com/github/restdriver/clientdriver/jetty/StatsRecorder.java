@@ -0,0 +1,34 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The live counters behind a handler's {@link ClientDriverStats}. Every counter is striped, so request threads
+ * updating them at once do not contend.
+ */
+final class StatsRecorder {
+
+    final LongAdder requests = new LongAdder();
+    final LongAdder matched = new LongAdder();
+    final LongAdder unmatched = new LongAdder();
+    final LongAdder inFlight = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LatencyHistogram handlingTime = new LatencyHistogram();
+
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.restdriver.clientdriver.exception.ClientDriverInternalException;
+
+/**
+ * Writes a body a piece at a time with pauses in between, using non-blocking writes. No thread is held while pausing
+ * or while waiting for a slow client to accept a piece, so a throttled response only costs a timer task per piece.
+ * 
+ * <p>The body is read from a channel one piece ahead of writing it, so a body served from a file is never held in
+ * memory more than a piece at a time. The channel is closed once the body has been written or writing has failed.
+ * The timer only hands each resumption over to an executor, so reading the body never holds up the shared timer
+ * thread.</p>
+ */
+final class ThrottledBodyWriter implements WriteListener {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThrottledBodyWriter.class);
+    
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream output;
+    private final Scheduler scheduler;
+    private final Executor executor;
+    private final ReadableByteChannel body;
+    private final byte[] chunk;
+    private final long pauseNanos;
+    
+    private int pending;
+    private boolean flushNeeded;
+    private boolean pausing;
+    private boolean completed;
+    
+    private final Runnable resume = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ThrottledBodyWriter.this) {
+                pausing = false;
+            }
+            try {
+                onWritePossible();
+            } catch (IOException e) {
+                onError(e);
+            }
+        }
+    };
+    
+    private final Runnable handOff = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                executor.execute(resume);
+            } catch (RejectedExecutionException e) {
+                // the server is stopping, so give up rather than leave the response open
+                onError(e);
+            }
+        }
+    };
+    
+    ThrottledBodyWriter(AsyncContext asyncContext, ServletOutputStream output, Scheduler scheduler, Executor executor, ReadableByteChannel body, long length, int chunkSize, long pauseNanos) {
+        this.asyncContext = asyncContext;
+        this.output = output;
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.body = body;
+        this.chunk = new byte[chunkLength(length, chunkSize)];
+        this.pauseNanos = pauseNanos;
+    }
+    
+    /**
+     * Starts writing. The async context is completed once the whole body has been written.
+     * 
+     * @throws IOException
+     *             if the first piece of the body cannot be read, in which case the body has been closed
+     */
+    void start() throws IOException {
+        try {
+            pending = read(body, chunk);
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        }
+        output.setWriteListener(this);
+    }
+    
+    @Override
+    public synchronized void onWritePossible() throws IOException {
+        
+        // a piece goes out in two non-blocking steps, write then flush, and either may leave the output not ready
+        while (!completed && !pausing && output.isReady()) {
+            
+            if (flushNeeded) {
+                flushNeeded = false;
+                output.flush();
+                
+                // the output was ready, so the last piece has been taken from the chunk and it can be reused
+                pending = read(body, chunk);
+                if (pending > 0) {
+                    pausing = true;
+                    scheduler.schedule(handOff, pauseNanos, TimeUnit.NANOSECONDS);
+                }
+                
+            } else if (pending > 0) {
+                output.write(chunk, 0, pending);
+                pending = 0;
+                flushNeeded = true;
+                
+            } else {
+                completed = true;
+                closeQuietly(body);
+                asyncContext.complete();
+            }
+        }
+    }
+    
+    @Override
+    public synchronized void onError(Throwable t) {
+        if (!completed) {
+            completed = true;
+            LOGGER.warn("Failed to write throttled response", t);
+            closeQuietly(body);
+            asyncContext.complete();
+        }
+    }
+    
+    /**
+     * Writes a body a piece at a time with pauses in between, sleeping on the calling thread. This is for when the
+     * request cannot be handled asynchronously.
+     * 
+     * @param output
+     *            The stream to write to
+     * @param body
+     *            The body to write, which is closed once it has been written
+     * @param length
+     *            The length of the body in bytes
+     * @param chunkSize
+     *            The number of bytes to write at a time
+     * @param pauseNanos
+     *            The number of nanoseconds to pause between pieces
+     * @throws IOException
+     *             if reading or writing fails
+     */
+    static void writeBlocking(OutputStream output, ReadableByteChannel body, long length, int chunkSize, long pauseNanos) throws IOException {
+        
+        byte[] chunk = new byte[chunkLength(length, chunkSize)];
+        
+        try {
+            int read = read(body, chunk);
+            
+            while (read > 0) {
+                output.write(chunk, 0, read);
+                output.flush();
+                
+                read = read(body, chunk);
+                if (read > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(pauseNanos);
+                    } catch (InterruptedException ie) {
+                        throw new ClientDriverInternalException("Throttled response was interrupted", ie);
+                    }
+                }
+            }
+        } finally {
+            body.close();
+        }
+    }
+    
+    /**
+     * A body shorter than a piece only needs a buffer as long as itself.
+     */
+    private static int chunkLength(long length, int chunkSize) {
+        return (int) Math.max(1, Math.min(chunkSize, length));
+    }
+    
+    /**
+     * Fills the chunk from the body, stopping short only at the end of the body.
+     * 
+     * @return The number of bytes read, which is 0 once the whole body has been read
+     */
+    private static int read(ReadableByteChannel body, byte[] chunk) throws IOException {
+        
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        
+        int read;
+        do {
+            read = body.read(buffer);
+        } while (read >= 0 && buffer.hasRemaining());
+        
+        return buffer.position();
+    }
+    
+    private static void closeQuietly(ReadableByteChannel body) {
+        try {
+            body.close();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close throttled response body", e);
+        }
+    }
+    
+}
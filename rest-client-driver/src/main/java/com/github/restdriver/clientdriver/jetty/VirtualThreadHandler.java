@@ -0,0 +1,97 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands each request over to a virtual thread of its own, so that the server's pool of platform threads only has to
+ * accept connections and select them, and a request which sleeps or blocks does not hold one of them. The request is
+ * made asynchronous first, and completed once the wrapped handler returns on the virtual thread.
+ */
+final class VirtualThreadHandler extends HandlerWrapper {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadHandler.class);
+
+    private final ExecutorService executor;
+
+    VirtualThreadHandler(Handler handler, ExecutorService executor) {
+        this.executor = executor;
+        setHandler(handler);
+    }
+
+    @Override
+    public void handle(final String target, final Request baseRequest, final HttpServletRequest request, final HttpServletResponse response) throws IOException, ServletException {
+
+        if (!request.isAsyncSupported()) {
+            super.handle(target, baseRequest, request, response);
+            return;
+        }
+
+        final AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(0);
+        baseRequest.setHandled(true);
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handleOnVirtualThread(target, baseRequest, request, response);
+                    } finally {
+                        asyncContext.complete();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the server is stopping, so there are no virtual threads left to hand over to
+            response.setStatus(503);
+            asyncContext.complete();
+        }
+    }
+
+    private void handleOnVirtualThread(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) {
+        try {
+            super.handle(target, baseRequest, request, response);
+        } catch (Exception e) {
+            // Jetty is no longer on the stack to turn this into an error response, so it is done here
+            LOGGER.warn("Failed to handle request on a virtual thread", e);
+            if (!response.isCommitted()) {
+                response.setStatus(500);
+            }
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        executor.shutdown();
+    }
+
+}
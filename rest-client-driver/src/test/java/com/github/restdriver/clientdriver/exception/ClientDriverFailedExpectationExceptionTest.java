@@ -37,6 +37,7 @@ import com.github.restdriver.clientdriver.ClientDriverExpectation;
 import com.github.restdriver.clientdriver.ClientDriverRequest;
 import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
 import com.github.restdriver.clientdriver.ClientDriverRequestResponsePair;
+import com.github.restdriver.clientdriver.DefaultRequestMatcher;
 import com.github.restdriver.clientdriver.HttpRealRequest;
 import com.github.restdriver.clientdriver.unit.DummyServletInputStream;
 
@@ -74,6 +75,68 @@ public class ClientDriverFailedExpectationExceptionTest {
         }
     }
     
+    @Test
+    public void should_rank_nearest_expectations_for_each_unexpected_request() throws Exception {
+        
+        String message = new ClientDriverFailedExpectationException(newArrayList(createUnexpectedRequest("/ok")), createExpectations()).getMessage();
+        
+        int nearest = message.indexOf("nearest: 2/7 checks passed by");
+        int nextNearest = message.indexOf("nearest: 1/7 checks passed by");
+        
+        assertThat(nearest, greaterThan(0));
+        assertThat(nextNearest, greaterThan(nearest));
+        assertThat(message.substring(nearest, nextNearest), containsString("/ok\";"));
+        assertThat(message.substring(nearest, nextNearest), containsString("REJECTED on method: expected PUT != POST"));
+    }
+    
+    @Test
+    public void should_leave_out_nearest_expectations_when_asked_to() throws Exception {
+        
+        String message = new ClientDriverFailedExpectationException(newArrayList(createUnexpectedRequest("/ok")), createExpectations(), false).getMessage();
+        
+        assertThat(message, containsString("/ok;"));
+        assertThat(message, not(containsString("nearest:")));
+    }
+    
+    @Test
+    public void should_give_rejections_recorded_while_matching() throws Exception {
+        
+        HttpRealRequest unexpectedRequest = createUnexpectedRequest("/ok");
+        ClientDriverRequest expectedRequest = new ClientDriverRequest("/elsewhere").withMethod(Method.POST);
+        new DefaultRequestMatcher(0).isMatch(unexpectedRequest, expectedRequest);
+        
+        String message = new ClientDriverFailedExpectationException(newArrayList(unexpectedRequest), createExpectations(), false).getMessage();
+        
+        assertThat(message, containsString("tried: REJECTED on path: expected /elsewhere != /ok by ClientDriverRequest: POST \"/elsewhere\""));
+    }
+    
+    @Test
+    public void should_report_expectation_statuses_as_they_were_when_created() throws Exception {
+        
+        List<ClientDriverExpectation> expectations = createExpectations();
+        ClientDriverFailedExpectationException exception = new ClientDriverFailedExpectationException(expectations);
+        expectations.get(0).match(createUnexpectedRequest("/ok"));
+        
+        assertThat(exception.getMessage(), containsString("expected: 1, actual: 0"));
+        assertThat(exception.getMessage(), not(containsString("actual: 1")));
+    }
+    
+    @Test
+    public void should_only_list_some_of_many_unexpected_requests() throws Exception {
+        
+        List<HttpRealRequest> unexpectedRequests = newArrayList();
+        for (int i = 0; i < 60; i++) {
+            unexpectedRequests.add(createUnexpectedRequest("/" + i));
+        }
+        
+        String message = new ClientDriverFailedExpectationException(unexpectedRequests, createExpectations()).getMessage();
+        
+        assertThat(message, Matchers.startsWith("60 unexpected request(s):"));
+        assertThat(message, containsString("/49;"));
+        assertThat(message, not(containsString("/50;")));
+        assertThat(message, containsString("... and 10 more request(s)"));
+    }
+    
     private List<ClientDriverExpectation> createExpectations() {
         return newArrayList(
                 createExpectation("/ok"),
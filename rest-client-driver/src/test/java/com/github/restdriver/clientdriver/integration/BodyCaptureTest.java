@@ -20,6 +20,9 @@ import static com.github.restdriver.clientdriver.RestClientDriver.*;
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
@@ -75,4 +78,36 @@ public class BodyCaptureTest {
         assertThat(capture.getContent(), hasJsonPath("$.a", equalTo("A")));
     }
     
+    @Test
+    public void waitingForCaptureReturnsAsSoonAsBodyIsCaptured() throws Exception {
+        
+        final StringBodyCapture capture = new StringBodyCapture();
+        
+        clientDriver.addExpectation(
+                onRequestTo("/foo").withMethod(Method.POST).capturingBodyIn(capture),
+                giveEmptyResponse().withStatus(201));
+        
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    HttpPost post = new HttpPost(clientDriver.getBaseUrl() + "/foo");
+                    post.setEntity(new StringEntity("a string"));
+                    EntityUtils.consume(new DefaultHttpClient().execute(post).getEntity());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        
+        long start = System.currentTimeMillis();
+        thread.start();
+        
+        waitFor(capture, 10, TimeUnit.SECONDS);
+        
+        assertThat(capture.getContent(), is("a string"));
+        assertThat(System.currentTimeMillis() - start, is(lessThan(400L)));
+    }
+    
 }
@@ -0,0 +1,103 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.integration;
+
+import static com.github.restdriver.clientdriver.RestClientDriver.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.restdriver.clientdriver.ClientDriver;
+import com.github.restdriver.clientdriver.ClientDriverFactory;
+import com.github.restdriver.clientdriver.ClientDriverPool;
+import com.github.restdriver.clientdriver.exception.ClientDriverFailedExpectationException;
+
+public class ClientDriverPoolTest {
+    
+    private final ClientDriverPool pool = new ClientDriverPool(1);
+    
+    @After
+    public void after() {
+        pool.shutdown();
+    }
+    
+    @Test
+    public void releasedDriverIsHandedOutAgainWithoutItsExpectations() throws IOException {
+        
+        ClientDriver driver = pool.acquire();
+        driver.addExpectation(onRequestTo("/pooled"), giveEmptyResponse());
+        new DefaultHttpClient().execute(new HttpGet(driver.getBaseUrl() + "/pooled"));
+        pool.release(driver);
+        
+        ClientDriver again = pool.acquire();
+        assertThat(again, is(sameInstance(driver)));
+        again.verify();
+        
+        again.addExpectation(onRequestTo("/pooled"), giveEmptyResponse().withStatus(202));
+        HttpClient client = new DefaultHttpClient();
+        HttpResponse response = client.execute(new HttpGet(again.getBaseUrl() + "/pooled"));
+        assertThat(response.getStatusLine().getStatusCode(), is(202));
+        pool.release(again);
+    }
+    
+    @Test
+    public void driverFailingVerificationIsStillReturnedToThePool() {
+        
+        ClientDriver driver = pool.acquire();
+        driver.addExpectation(onRequestTo("/never"), giveEmptyResponse());
+        
+        try {
+            pool.release(driver);
+            fail("ClientDriverFailedExpectationException should have been thrown");
+        } catch (ClientDriverFailedExpectationException e) {
+            // Should happen
+        }
+        
+        ClientDriver again = pool.acquire();
+        assertThat(again, is(sameInstance(driver)));
+        again.verify();
+        pool.release(again);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void driverNotFromThePoolCannotBeReleasedIntoIt() {
+        
+        ClientDriver driver = new ClientDriverFactory().createClientDriver();
+        try {
+            pool.release(driver);
+        } finally {
+            driver.shutdownQuietly();
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void driverCannotBeReleasedTwice() {
+        
+        ClientDriver driver = pool.acquire();
+        pool.release(driver);
+        pool.release(driver);
+    }
+    
+}
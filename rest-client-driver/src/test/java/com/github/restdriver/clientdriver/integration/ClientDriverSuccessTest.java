@@ -21,11 +21,13 @@ import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.regex.Pattern;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
@@ -47,6 +49,7 @@ import org.apache.http.util.EntityUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
 import com.github.restdriver.clientdriver.ClientDriverRule;
@@ -60,6 +63,9 @@ public class ClientDriverSuccessTest {
     @Rule
     public ExpectedException thrown = ExpectedException.none();
     
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
     @Test
     public void testJettyWorking200() throws Exception {
         
@@ -146,6 +152,32 @@ public class ClientDriverSuccessTest {
         
     }
     
+    @Test
+    public void testJettyWorkingWithFileContent() throws Exception {
+        
+        byte[] binaryContent = new byte[100000];
+        for (int i = 0; i < binaryContent.length; i++) {
+            binaryContent[i] = (byte) i;
+        }
+        File file = folder.newFile("content.bin");
+        FileUtils.writeByteArrayToFile(file, binaryContent);
+        
+        String baseUrl = driver.getBaseUrl();
+        driver.addExpectation(onRequestTo("/file"), giveResponseFromFile(file.toPath(), "application/octet-stream")).times(2);
+        
+        HttpClient client = new DefaultHttpClient();
+        
+        for (int i = 0; i < 2; i++) {
+            HttpResponse response = client.execute(new HttpGet(baseUrl + "/file"));
+            
+            assertThat(response.getStatusLine().getStatusCode(), is(200));
+            assertThat(response.getFirstHeader("Content-Length").getValue(), is("100000"));
+            assertThat(response.getFirstHeader("Content-Type").getValue(), is("application/octet-stream"));
+            assertThat(IOUtils.toByteArray(response.getEntity().getContent()), is(binaryContent));
+        }
+        
+    }
+    
     @Test
     public void testJettyWorkingTwoRequests() throws Exception {
         
@@ -0,0 +1,94 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.integration;
+
+import static com.github.restdriver.clientdriver.RestClientDriver.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.restdriver.clientdriver.ClientDriver;
+import com.github.restdriver.clientdriver.ClientDriverFactory;
+
+public class ConcurrentRequestsTest {
+
+    private static final int THREADS = 8;
+    private static final int REQUESTS_PER_THREAD = 25;
+
+    private ClientDriver driver;
+    private ExecutorService executor;
+
+    @Before
+    public void before() {
+        driver = new ClientDriverFactory().createClientDriver();
+        driver.noFailFastOnUnexpectedRequest();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+        driver.shutdownQuietly();
+    }
+
+    @Test
+    public void expectationIsNeverMatchedMoreTimesThanExpectedUnderContention() throws Exception {
+
+        int expectedMatches = THREADS * REQUESTS_PER_THREAD / 2;
+        driver.addExpectation(onRequestTo("/contended"), giveResponse("ok", "text/plain")).times(expectedMatches);
+
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    DefaultHttpClient client = new DefaultHttpClient();
+                    int matched = 0;
+                    for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+                        HttpResponse response = client.execute(new HttpGet(driver.getBaseUrl() + "/contended"));
+                        EntityUtils.consume(response.getEntity());
+                        if (response.getStatusLine().getStatusCode() == 200) {
+                            matched++;
+                        }
+                    }
+                    return matched;
+                }
+            }));
+        }
+
+        int totalMatched = 0;
+        for (Future<Integer> result : results) {
+            totalMatched += result.get();
+        }
+
+        assertThat(totalMatched, is(expectedMatches));
+    }
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.integration;
+
+import static com.github.restdriver.clientdriver.RestClientDriver.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.FuturePromise;
+import org.eclipse.jetty.util.Promise;
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.restdriver.clientdriver.ClientDriver;
+import com.github.restdriver.clientdriver.ClientDriverFactory;
+import com.github.restdriver.clientdriver.DefaultRequestMatcher;
+import com.github.restdriver.clientdriver.HttpRealRequest;
+import com.github.restdriver.clientdriver.jetty.DefaultClientDriverJettyHandler;
+import com.github.restdriver.clientdriver.jetty.RequestJournal;
+import com.github.restdriver.clientdriver.jetty.ServerSettings;
+
+public class Http2CleartextTest {
+    
+    private static final int STREAMS = 4;
+    
+    private ClientDriver driver;
+    
+    @After
+    public void after() {
+        driver.shutdown();
+    }
+    
+    @Test
+    public void driverAcceptingHttp2StillServesHttp1Requests() throws IOException {
+        
+        driver = new ClientDriverFactory().serverSettings(new ServerSettings().http2Cleartext().http2MaxConcurrentStreams(16)).createClientDriver();
+        driver.addExpectation(onRequestTo("/h2c"), giveResponse("hello", "text/plain"));
+        
+        HttpClient client = new DefaultHttpClient();
+        HttpResponse response = client.execute(new HttpGet(driver.getBaseUrl() + "/h2c"));
+        
+        assertThat(response.getStatusLine().getStatusCode(), is(200));
+        assertThat(IOUtils.toString(response.getEntity().getContent()), is("hello"));
+        driver.verify(onRequestTo("/h2c"), 1);
+    }
+    
+    @Test
+    public void concurrentStreamsOnOneConnectionAreEachMatched() throws Exception {
+        
+        RequestJournal journal = new RequestJournal();
+        driver = new ClientDriver(new DefaultClientDriverJettyHandler(new DefaultRequestMatcher(), journal), 0, new ServerSettings().http2Cleartext());
+        driver.addExpectation(onRequestTo("/h2c"), giveResponse("hello", "text/plain").after(250, TimeUnit.MILLISECONDS)).times(STREAMS);
+        
+        final CountDownLatch responses = new CountDownLatch(STREAMS);
+        final Queue<Integer> statuses = new ConcurrentLinkedQueue<Integer>();
+        
+        HTTP2Client client = new HTTP2Client();
+        client.start();
+        
+        try {
+            FuturePromise<Session> sessionPromise = new FuturePromise<Session>();
+            client.connect(new InetSocketAddress("localhost", driver.getPort()), new Session.Listener.Adapter(), sessionPromise);
+            Session session = sessionPromise.get(5, TimeUnit.SECONDS);
+            
+            for (int i = 0; i < STREAMS; i++) {
+                MetaData.Request request = new MetaData.Request("GET", new HttpURI(driver.getBaseUrl() + "/h2c"), HttpVersion.HTTP_2, new HttpFields());
+                session.newStream(new HeadersFrame(request, null, true), new Promise.Adapter<Stream>(), new Stream.Listener.Adapter() {
+                    
+                    @Override
+                    public void onHeaders(Stream stream, HeadersFrame frame) {
+                        statuses.add(((MetaData.Response) frame.getMetaData()).getStatus());
+                        if (frame.isEndStream()) {
+                            responses.countDown();
+                        }
+                    }
+                    
+                    @Override
+                    public void onData(Stream stream, DataFrame frame, Callback callback) {
+                        callback.succeeded();
+                        if (frame.isEndStream()) {
+                            responses.countDown();
+                        }
+                    }
+                    
+                });
+            }
+            
+            assertThat(responses.await(10, TimeUnit.SECONDS), is(true));
+        } finally {
+            client.stop();
+        }
+        
+        assertThat(statuses, hasSize(STREAMS));
+        assertThat(statuses, everyItem(is(200)));
+        driver.verify(onRequestTo("/h2c"), STREAMS);
+        
+        int mostConcurrentRequests = 0;
+        for (HttpRealRequest request : journal.getRequests()) {
+            assertThat(request.getProtocol(), is("HTTP/2.0"));
+            mostConcurrentRequests = Math.max(mostConcurrentRequests, request.getConcurrentRequests());
+        }
+        assertThat(mostConcurrentRequests, is(greaterThan(1)));
+    }
+    
+}
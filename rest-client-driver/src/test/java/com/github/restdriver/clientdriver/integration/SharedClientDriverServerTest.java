@@ -0,0 +1,110 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.integration;
+
+import static com.github.restdriver.clientdriver.RestClientDriver.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.restdriver.clientdriver.ClientDriver;
+import com.github.restdriver.clientdriver.ClientDriverFactory;
+import com.github.restdriver.clientdriver.SharedClientDriverServer;
+
+public class SharedClientDriverServerTest {
+    
+    private SharedClientDriverServer server;
+    
+    @Before
+    public void before() {
+        server = new SharedClientDriverServer();
+    }
+    
+    @After
+    public void after() {
+        server.shutdown();
+    }
+    
+    @Test
+    public void driversOnSharedServerHaveSeparateExpectations() throws IOException {
+        
+        ClientDriver first = new ClientDriverFactory().createClientDriver(server);
+        ClientDriver second = new ClientDriverFactory().createClientDriver(server);
+        first.addExpectation(onRequestTo("/thing"), giveResponse("first", "text/plain"));
+        second.addExpectation(onRequestTo("/thing"), giveResponse("second", "text/plain"));
+        
+        assertThat(first.getPort(), is(server.getPort()));
+        assertThat(first.getBaseUrl(), is(not(second.getBaseUrl())));
+        
+        HttpClient client = new DefaultHttpClient();
+        HttpResponse firstResponse = client.execute(new HttpGet(first.getBaseUrl() + "/thing"));
+        assertThat(IOUtils.toString(firstResponse.getEntity().getContent()), is("first"));
+        HttpResponse secondResponse = client.execute(new HttpGet(second.getBaseUrl() + "/thing"));
+        assertThat(IOUtils.toString(secondResponse.getEntity().getContent()), is("second"));
+        
+        first.shutdown();
+        second.shutdown();
+    }
+    
+    @Test
+    public void driverWhichIsShutDownNoLongerReceivesRequests() throws IOException {
+        
+        ClientDriver driver = new ClientDriverFactory().createClientDriver(server);
+        driver.shutdown();
+        
+        HttpClient client = new DefaultHttpClient();
+        HttpResponse response = client.execute(new HttpGet(driver.getBaseUrl() + "/thing"));
+        
+        assertThat(response.getStatusLine().getStatusCode(), is(404));
+    }
+    
+    @Test
+    public void requestToBarePrefixReachesDriverAsRoot() throws IOException {
+        
+        ClientDriver driver = new ClientDriverFactory().createClientDriver(server);
+        driver.addExpectation(onRequestTo("/"), giveResponse("root", "text/plain"));
+        
+        HttpClient client = new DefaultHttpClient();
+        HttpResponse response = client.execute(new HttpGet(driver.getBaseUrl()));
+        
+        assertThat(IOUtils.toString(response.getEntity().getContent()), is("root"));
+        driver.shutdown();
+    }
+    
+    @Test
+    public void requestToBarePrefixWithQueryStringReachesDriverAsRoot() throws IOException {
+        
+        ClientDriver driver = new ClientDriverFactory().createClientDriver(server);
+        driver.addExpectation(onRequestTo("/").withParam("page", "2"), giveResponse("second page", "text/plain"));
+        
+        HttpClient client = new DefaultHttpClient();
+        HttpResponse response = client.execute(new HttpGet(driver.getBaseUrl() + "?page=2"));
+        
+        assertThat(IOUtils.toString(response.getEntity().getContent()), is("second page"));
+        driver.shutdown();
+    }
+    
+}
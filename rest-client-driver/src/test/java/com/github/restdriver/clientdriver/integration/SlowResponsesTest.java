@@ -16,15 +16,35 @@
 package com.github.restdriver.clientdriver.integration;
 
 import static com.github.restdriver.clientdriver.RestClientDriver.*;
+import static java.nio.charset.StandardCharsets.*;
 import static java.util.concurrent.TimeUnit.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.junit.Test;
 
 import com.github.restdriver.clientdriver.ClientDriver;
 import com.github.restdriver.clientdriver.ClientDriverFactory;
+import com.github.restdriver.clientdriver.DefaultRequestMatcher;
+import com.github.restdriver.clientdriver.jetty.DefaultClientDriverJettyHandler;
 
 public class SlowResponsesTest {
     
@@ -44,4 +64,122 @@ public class SlowResponsesTest {
         driver.shutdown();
     }
     
+    @Test
+    public void delayedResponsesDoNotHoldServerThreads() throws Exception {
+        
+        int concurrentRequests = 30;
+        
+        DefaultClientDriverJettyHandler handler = new DefaultClientDriverJettyHandler(new DefaultRequestMatcher());
+        handler.addExpectation(onRequestTo("/slow"), giveResponse("done", "text/plain").after(1, SECONDS)).times(concurrentRequests);
+        
+        // only a handful of threads are left over for handling requests once the acceptor and selector have theirs
+        Server server = new Server(new QueuedThreadPool(8, 8));
+        ServerConnector connector = new ServerConnector(server, 1, 1);
+        server.addConnector(connector);
+        server.setHandler(handler);
+        server.start();
+        
+        final String url = "http://localhost:" + connector.getLocalPort() + "/slow";
+        ExecutorService executor = Executors.newFixedThreadPool(concurrentRequests);
+        
+        try {
+            List<Future<String>> bodies = new ArrayList<Future<String>>();
+            long start = System.currentTimeMillis();
+            
+            for (int i = 0; i < concurrentRequests; i++) {
+                bodies.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        HttpResponse response = new DefaultHttpClient().execute(new HttpGet(url));
+                        return EntityUtils.toString(response.getEntity());
+                    }
+                }));
+            }
+            
+            for (Future<String> body : bodies) {
+                assertThat(body.get(), is("done"));
+            }
+            
+            long elapsed = System.currentTimeMillis() - start;
+            
+            // sleeping on the five worker threads would take at least six seconds
+            assertThat(elapsed, is(greaterThanOrEqualTo(1000L)));
+            assertThat(elapsed, is(lessThan(4000L)));
+            
+            handler.checkForUnexpectedRequests();
+            handler.checkForUnmatchedExpectations();
+            
+        } finally {
+            executor.shutdownNow();
+            server.stop();
+        }
+    }
+    
+    @Test
+    public void bandwidthLimitedResponseTricklesBodyWithContentLength() throws Exception {
+        
+        String content = StringUtils.repeat("x", 1000);
+        
+        ClientDriver driver = new ClientDriverFactory().createClientDriver();
+        driver.addExpectation(onRequestTo("/trickle"), giveResponse(content, "text/plain").withBandwidth(2000));
+        
+        try {
+            long start = System.currentTimeMillis();
+            HttpResponse response = new DefaultHttpClient().execute(new HttpGet(driver.getBaseUrl() + "/trickle"));
+            String body = EntityUtils.toString(response.getEntity());
+            long elapsed = System.currentTimeMillis() - start;
+            
+            assertThat(body, is(content));
+            assertThat(response.getFirstHeader("Content-Length").getValue(), is("1000"));
+            assertThat(elapsed, is(greaterThanOrEqualTo(400L)));
+        } finally {
+            driver.shutdown();
+        }
+    }
+    
+    @Test
+    public void chunkedResponseIsSentInChunksWithPauses() throws Exception {
+        
+        ClientDriver driver = new ClientDriverFactory().createClientDriver();
+        driver.addExpectation(onRequestTo("/chunks"), giveResponse("aaabbbccc", "text/plain").inChunks(3, 200, MILLISECONDS));
+        
+        try {
+            long start = System.currentTimeMillis();
+            HttpResponse response = new DefaultHttpClient().execute(new HttpGet(driver.getBaseUrl() + "/chunks"));
+            String body = EntityUtils.toString(response.getEntity());
+            long elapsed = System.currentTimeMillis() - start;
+            
+            assertThat(body, is("aaabbbccc"));
+            assertThat(response.getFirstHeader("Transfer-Encoding").getValue(), is("chunked"));
+            assertThat(elapsed, is(greaterThanOrEqualTo(400L)));
+        } finally {
+            driver.shutdown();
+        }
+    }
+    
+    @Test
+    public void bandwidthLimitedFileResponseIsStreamedFromTheFile() throws Exception {
+        
+        String content = StringUtils.repeat("y", 1000);
+        Path file = Files.createTempFile("throttled", ".txt");
+        Files.write(file, content.getBytes(UTF_8));
+        
+        ClientDriver driver = new ClientDriverFactory().createClientDriver();
+        driver.addExpectation(onRequestTo("/trickle"), giveResponseFromFile(file, "text/plain").withBandwidth(2000));
+        
+        try {
+            long start = System.currentTimeMillis();
+            HttpResponse response = new DefaultHttpClient().execute(new HttpGet(driver.getBaseUrl() + "/trickle"));
+            String body = EntityUtils.toString(response.getEntity());
+            long elapsed = System.currentTimeMillis() - start;
+            
+            assertThat(body, is(content));
+            assertThat(response.getFirstHeader("Content-Length").getValue(), is("1000"));
+            assertThat(elapsed, is(greaterThanOrEqualTo(400L)));
+        } finally {
+            driver.shutdown();
+            Files.delete(file);
+        }
+    }
+    
 }
@@ -23,11 +23,17 @@ import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import com.github.restdriver.clientdriver.ClientDriver;
+import com.github.restdriver.clientdriver.ClientDriverFactory;
+import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
 import com.github.restdriver.clientdriver.ClientDriverRule;
 
 public class VerifyTest {
@@ -103,4 +109,49 @@ public class VerifyTest {
         driver.verify(onRequestTo("/blah"), 0);
     }
 
+    @Test
+    public void testVerifyFailsWhenEvictedRequestsMakeCountUnreliable() throws Exception {
+
+        ClientDriver smallDriver = new ClientDriverFactory().journalCapacity(1).createClientDriver();
+
+        try {
+            smallDriver.addExpectation(onRequestTo("/blah"), giveEmptyResponse()).anyTimes();
+
+            HttpClient client = new DefaultHttpClient();
+            HttpGet getter = new HttpGet(smallDriver.getBaseUrl() + "/blah");
+            EntityUtils.consume(client.execute(getter).getEntity());
+            EntityUtils.consume(client.execute(getter).getEntity());
+
+            thrown.expect(RuntimeException.class);
+            thrown.expectMessage("1 earlier requests are no longer in the journal");
+
+            smallDriver.verify(onRequestTo("/blah"), 2);
+        } finally {
+            smallDriver.shutdownQuietly();
+        }
+    }
+
+    @Test
+    public void testVerifyFailsWhenBodiesWhichWereNotRetainedMakeCountUnreliable() throws Exception {
+
+        ClientDriver smallDriver = new ClientDriverFactory().maxRetainedBodyLength(4).createClientDriver();
+
+        try {
+            smallDriver.addExpectation(onRequestTo("/blah").withMethod(Method.POST), giveEmptyResponse()).anyTimes();
+
+            HttpClient client = new DefaultHttpClient();
+            HttpPost poster = new HttpPost(smallDriver.getBaseUrl() + "/blah");
+            poster.setHeader("Content-Type", "text/plain");
+            poster.setEntity(new StringEntity("too long to keep"));
+            EntityUtils.consume(client.execute(poster).getEntity());
+
+            thrown.expect(RuntimeException.class);
+            thrown.expectMessage("1 request bodies were not retained");
+
+            smallDriver.verify(onRequestTo("/blah").withMethod(Method.POST).withBody("too long to keep", "text/plain"), 1);
+        } finally {
+            smallDriver.shutdownQuietly();
+        }
+    }
+
 }
@@ -99,6 +99,31 @@ public class VerifyWithinTest {
         
     }
     
+    @Test
+    public void verifyingReturnsAsSoonAsExpectationIsMatched() throws Exception {
+        
+        clientDriver.addExpectation(
+                onRequestTo("/foo"),
+                giveEmptyResponse().within(10, TimeUnit.SECONDS));
+        
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                schnooze(100, TimeUnit.MILLISECONDS);
+                hitThat(clientDriver.getBaseUrl() + "/foo");
+            }
+        });
+        thread.setDaemon(true);
+        
+        long start = System.currentTimeMillis();
+        thread.start();
+        
+        clientDriver.verify();
+        
+        assertThat(System.currentTimeMillis() - start, is(lessThan(400L)));
+        
+    }
+    
     @Test
     public void singleRequestThatIsNotMatchedInTimeFailsToVerify() throws Exception {
         
@@ -37,7 +37,7 @@ public class WhenCompletedTest {
     @Rule
     public ClientDriverRule clientDriver = new ClientDriverRule();
     
-    private boolean done;
+    private volatile boolean done;
     
     @Before
     public void before() {
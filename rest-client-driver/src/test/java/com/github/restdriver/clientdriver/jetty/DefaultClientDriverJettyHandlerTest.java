@@ -23,6 +23,8 @@ import static org.mockito.Mockito.*;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
@@ -142,4 +144,34 @@ public class DefaultClientDriverJettyHandlerTest {
         sut.handle("", mockRequest, mockHttpRequest, mockHttpResponse);
         verify(mockHttpResponse).setStatus(200);
     }
+    
+    @Test
+    public void stats_should_count_requests_and_bytes_sent() throws IOException, ServletException {
+        
+        DefaultClientDriverJettyHandler sut = new DefaultClientDriverJettyHandler(mockRequestMatcher);
+        sut.addExpectation(realRequest, realResponse);
+        sut.handle("", mockRequest, mockHttpRequest, mockHttpResponse);
+        
+        ClientDriverStats stats = sut.getStats();
+        assertEquals(1, stats.getRequests());
+        assertEquals(1, stats.getMatchedRequests());
+        assertEquals(0, stats.getInFlightRequests());
+        assertEquals("entity payload".length(), stats.getBytesOut());
+        assertEquals(1, stats.getHandlingTimeCount());
+        assertEquals(1, stats.getJournalSize());
+    }
+    
+    @Test
+    public void stats_should_keep_hits_of_satisfied_expectations() throws IOException, ServletException {
+        
+        DefaultClientDriverJettyHandler sut = new DefaultClientDriverJettyHandler(mockRequestMatcher);
+        sut.addExpectation(realRequest, realResponse);
+        sut.handle("", mockRequest, mockHttpRequest, mockHttpResponse);
+        
+        assertEquals(Arrays.asList(1L), new ArrayList<Long>(sut.getStats().getExpectationHits().values()));
+        
+        sut.reset();
+        
+        assertEquals(0, sut.getStats().getExpectationHits().size());
+    }
 }
@@ -0,0 +1,134 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import static com.github.restdriver.clientdriver.RestClientDriver.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.github.restdriver.clientdriver.ClientDriverExpectation;
+import com.github.restdriver.clientdriver.ClientDriverRequest;
+import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
+import com.github.restdriver.clientdriver.ClientDriverRequestResponsePair;
+import com.github.restdriver.clientdriver.RealRequest;
+
+public class ExpectationIndexTest {
+
+    @Test
+    public void onlyExpectationsWithSameMethodAndPathAreCandidates() {
+        ExpectationIndex index = new ExpectationIndex(true);
+        ClientDriverExpectation foo = expectation(onRequestTo("/foo"));
+        ClientDriverExpectation postFoo = expectation(onRequestTo("/foo").withMethod(Method.POST));
+        ClientDriverExpectation bar = expectation(onRequestTo("/bar"));
+        index.add(foo);
+        index.add(postFoo);
+        index.add(bar);
+
+        assertThat(index.candidatesFor(request(Method.GET, "/foo")), contains(foo));
+        assertThat(index.candidatesFor(request(Method.POST, "/foo")), contains(postFoo));
+        assertThat(index.candidatesFor(request(Method.GET, "/baz")), is(emptyIterable()));
+    }
+
+    @Test
+    public void patternExpectationsAreCandidatesInRegistrationOrder() {
+        ExpectationIndex index = new ExpectationIndex(true);
+        ClientDriverExpectation first = expectation(onRequestTo("/foo"));
+        ClientDriverExpectation pattern = expectation(onRequestTo(Pattern.compile("/f.*")));
+        ClientDriverExpectation last = expectation(onRequestTo("/foo"));
+        index.add(first);
+        index.add(pattern);
+        index.add(last);
+
+        assertThat(index.candidatesFor(request(Method.GET, "/foo")), contains(first, pattern, last));
+        assertThat(index.candidatesFor(request(Method.GET, "/fizz")), contains(pattern));
+    }
+
+    @Test
+    public void patternExpectationsAreOnlyCandidatesForPathsStartingWithTheirLiteralPrefix() {
+        ExpectationIndex index = new ExpectationIndex(true);
+        ClientDriverExpectation users = expectation(onRequestTo(Pattern.compile("/users/[0-9]+")));
+        ClientDriverExpectation anything = expectation(onRequestTo(Pattern.compile(".*")));
+        ClientDriverExpectation matcher = expectation(onRequestTo(endsWith("/orders")));
+        index.add(users);
+        index.add(anything);
+        index.add(matcher);
+
+        assertThat(index.candidatesFor(request(Method.GET, "/users/42")), contains(users, anything, matcher));
+        assertThat(index.candidatesFor(request(Method.GET, "/accounts/42")), contains(anything, matcher));
+        assertThat(index.candidatesFor(request(Method.POST, "/users/42")), contains(matcher));
+    }
+
+    @Test
+    public void removedExpectationIsNoLongerACandidate() {
+        ExpectationIndex index = new ExpectationIndex(true);
+        ClientDriverExpectation first = expectation(onRequestTo("/foo"));
+        ClientDriverExpectation second = expectation(onRequestTo("/foo"));
+        index.add(first);
+        index.add(second);
+
+        index.remove(first);
+
+        assertThat(index.candidatesFor(request(Method.GET, "/foo")), contains(second));
+        assertThat(index.asList(), contains(second));
+    }
+
+    @Test
+    public void unindexedExpectationsAreAlwaysCandidates() {
+        ExpectationIndex index = new ExpectationIndex(false);
+        ClientDriverExpectation foo = expectation(onRequestTo("/foo"));
+        ClientDriverExpectation bar = expectation(onRequestTo("/bar").withMethod(Method.PUT));
+        index.add(foo);
+        index.add(bar);
+
+        assertThat(index.candidatesFor(request(Method.GET, "/baz")), contains(foo, bar));
+    }
+
+    @Test
+    public void templatedExpectationsAreCandidatesOnlyForMatchingPaths() {
+        ExpectationIndex index = new ExpectationIndex(true);
+        ClientDriverExpectation user = expectation(onRequestToTemplate("/users/{id}"));
+        ClientDriverExpectation me = expectation(onRequestTo("/users/me"));
+        ClientDriverExpectation order = expectation(onRequestToTemplate("/users/{id}/orders/{orderId}"));
+        ClientDriverExpectation postUser = expectation(onRequestToTemplate("/users/{id}").withMethod(Method.POST));
+        index.add(user);
+        index.add(me);
+        index.add(order);
+        index.add(postUser);
+
+        assertThat(index.candidatesFor(request(Method.GET, "/users/me")), contains(user, me));
+        assertThat(index.candidatesFor(request(Method.GET, "/users/42/orders/7")), contains(order));
+        assertThat(index.candidatesFor(request(Method.POST, "/users/42")), contains(postUser));
+        assertThat(index.candidatesFor(request(Method.GET, "/users/")), is(emptyIterable()));
+    }
+
+    private static ClientDriverExpectation expectation(ClientDriverRequest request) {
+        return new ClientDriverExpectation(new ClientDriverRequestResponsePair(request, giveEmptyResponse()));
+    }
+
+    private static RealRequest request(Method method, String path) {
+        RealRequest request = mock(RealRequest.class);
+        when(request.getMethod()).thenReturn(method);
+        when(request.getPath()).thenReturn(path);
+        return request;
+    }
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesAreWithinAnEighthOfTheRecordedDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            histogram.record(nanos * 1000);
+        }
+
+        assertThat(histogram.getCount(), is(1000L));
+        assertThat(histogram.getMax(), is(1000000L));
+        assertThat((double) histogram.getPercentile(0.5), is(closeTo(500000, 500000 / 8)));
+        assertThat((double) histogram.getPercentile(0.99), is(closeTo(990000, 990000 / 8)));
+        assertThat(histogram.getPercentile(1.0), is(1000000L));
+    }
+
+    @Test
+    public void emptyHistogramGivesZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.getMean(), is(0L));
+        assertThat(histogram.getPercentile(0.99), is(0L));
+    }
+
+    @Test
+    public void everyBucketHoldsTheValuesUpToItsUpperBound() {
+        for (long value : new long[] { 0, 7, 8, 15, 16, 1000, 123456789, Long.MAX_VALUE }) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertThat(LatencyHistogram.upperBoundOf(bucket), is(greaterThanOrEqualTo(value)));
+            if (bucket > 0) {
+                assertThat(LatencyHistogram.upperBoundOf(bucket - 1), is(lessThan(value)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import static com.github.restdriver.clientdriver.RestClientDriver.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.restdriver.clientdriver.ClientDriverExpectation;
+import com.github.restdriver.clientdriver.ClientDriverRequest;
+import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
+import com.github.restdriver.clientdriver.ClientDriverRequestResponsePair;
+import com.github.restdriver.clientdriver.RealRequest;
+
+public class MatchCacheTest {
+
+    @Test
+    public void matchIsFoundForRequestWithSameFingerprint() {
+        ExpectationIndex index = new ExpectationIndex(true);
+        MatchCache cache = new MatchCache(10, index);
+        ClientDriverExpectation expectation = expectation(onRequestTo("/foo"));
+        index.add(expectation);
+
+        cache.lookup(request("/foo", "a", "1")).put(expectation);
+
+        assertThat(cache.lookup(request("/foo", "a", "1")).get(), is(expectation));
+        assertThat(cache.lookup(request("/foo", "a", "2")).get(), is(nullValue()));
+        assertThat(cache.lookup(request("/bar", "a", "1")).get(), is(nullValue()));
+    }
+
+    @Test
+    public void headersLookedAtByExpectationsArePartOfFingerprint() {
+        ExpectationIndex index = new ExpectationIndex(true);
+        MatchCache cache = new MatchCache(10, index);
+        ClientDriverExpectation expectation = expectation(onRequestTo("/foo").withHeader("Accept", "text/plain"));
+        index.add(expectation);
+
+        RealRequest plain = request("/foo", "a", "1");
+        when(plain.getHeaderValues("accept")).thenReturn(Arrays.asList("text/plain"));
+        RealRequest json = request("/foo", "a", "1");
+        when(json.getHeaderValues("accept")).thenReturn(Arrays.asList("application/json"));
+
+        cache.lookup(plain).put(expectation);
+
+        assertThat(cache.lookup(json).get(), is(nullValue()));
+    }
+
+    @Test
+    public void invalidatingDropsCachedMatchesIncludingOnesStillBeingWorkedOut() {
+        ExpectationIndex index = new ExpectationIndex(true);
+        MatchCache cache = new MatchCache(10, index);
+        ClientDriverExpectation expectation = expectation(onRequestTo("/foo"));
+        index.add(expectation);
+
+        cache.lookup(request("/foo", "a", "1")).put(expectation);
+        MatchCache.Lookup inFlight = cache.lookup(request("/bar", "a", "1"));
+        cache.invalidate();
+        inFlight.put(expectation);
+
+        assertThat(cache.lookup(request("/foo", "a", "1")).get(), is(nullValue()));
+        assertThat(cache.lookup(request("/bar", "a", "1")).get(), is(nullValue()));
+    }
+
+    @Test
+    public void changingAnExpectedRequestDropsCachedMatches() {
+        ExpectationIndex index = new ExpectationIndex(true);
+        MatchCache cache = new MatchCache(10, index);
+        ClientDriverRequest expectedRequest = onRequestTo("/foo");
+        ClientDriverExpectation expectation = expectation(expectedRequest);
+        index.add(expectation);
+
+        cache.lookup(request("/foo", "a", "1")).put(expectation);
+        expectedRequest.withParam("a", "2");
+
+        assertThat(cache.lookup(request("/foo", "a", "1")).get(), is(nullValue()));
+    }
+
+    @Test
+    public void changingARequestExpectedElsewhereKeepsCachedMatches() {
+        ExpectationIndex index = new ExpectationIndex(true);
+        MatchCache cache = new MatchCache(10, index);
+        ClientDriverExpectation expectation = expectation(onRequestTo("/foo"));
+        index.add(expectation);
+        ClientDriverRequest otherRequest = onRequestTo("/foo");
+        new ExpectationIndex(true).add(expectation(otherRequest));
+
+        cache.lookup(request("/foo", "a", "1")).put(expectation);
+        otherRequest.withParam("a", "2");
+
+        assertThat(cache.lookup(request("/foo", "a", "1")).get(), is(expectation));
+    }
+
+    @Test
+    public void onlyAnyTimesExpectationsIgnoringTheBodyAreStateless() {
+        assertThat(MatchCache.isStateless(expectation(onRequestTo("/foo")).anyTimes()), is(true));
+        assertThat(MatchCache.isStateless(expectation(onRequestTo("/foo"))), is(false));
+        assertThat(MatchCache.isStateless(expectation(onRequestTo("/foo").withBody("body", "text/plain")).anyTimes()), is(false));
+    }
+
+    private static ClientDriverExpectation expectation(ClientDriverRequest request) {
+        return new ClientDriverExpectation(new ClientDriverRequestResponsePair(request, giveEmptyResponse()));
+    }
+
+    private static RealRequest request(String path, String param, String value) {
+        Map<String, Collection<String>> params = Collections.<String, Collection<String>> singletonMap(param, Arrays.asList(value));
+        RealRequest request = mock(RealRequest.class);
+        when(request.getMethod()).thenReturn(Method.GET);
+        when(request.getPath()).thenReturn(path);
+        when(request.getParams()).thenReturn(params);
+        return request;
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.hamcrest.Description;
+import org.hamcrest.TypeSafeMatcher;
+import org.junit.Test;
+
+import com.github.restdriver.clientdriver.ClientDriverRequest;
+import com.github.restdriver.clientdriver.DefaultRequestMatcher;
+import com.github.restdriver.clientdriver.HttpRealRequest;
+
+public class MatchCounterTest {
+
+    private static final int MANY = 2 * MatchCounter.PARALLEL_THRESHOLD;
+
+    @Test
+    public void manyRequestsAreCountedOnTheForkJoinPool() {
+
+        List<HttpRealRequest> requests = requests(MANY);
+        ClientDriverRequest expected = new ClientDriverRequest("/even");
+
+        MatchCounter.Count counted = MatchCounter.count(new DefaultRequestMatcher(), requests, expected);
+
+        assertThat(counted.getMatched(), is(MANY / 2));
+        assertThat(counted.getBodiesNotRetained(), is(0));
+    }
+
+    @Test
+    public void manyRequestsAreCountedOnTheCallingThreadWhenAMatcherMayKeepState() {
+
+        final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        ClientDriverRequest expected = new ClientDriverRequest(new TypeSafeMatcher<String>() {
+            @Override
+            protected boolean matchesSafely(String path) {
+                threads.add(Thread.currentThread());
+                return path.equals("/even");
+            }
+
+            @Override
+            public void describeTo(Description description) {
+                description.appendText("/even");
+            }
+        });
+
+        MatchCounter.Count counted = MatchCounter.count(new DefaultRequestMatcher(), requests(MANY), expected);
+
+        assertThat(counted.getMatched(), is(MANY / 2));
+        assertThat(threads, contains(Thread.currentThread()));
+    }
+
+    private static List<HttpRealRequest> requests(int count) {
+
+        HttpServletRequest even = servletRequest("/even");
+        HttpServletRequest odd = servletRequest("/odd");
+
+        List<HttpRealRequest> requests = new ArrayList<HttpRealRequest>(count);
+        for (int i = 0; i < count; i++) {
+            requests.add(new HttpRealRequest(i % 2 == 0 ? even : odd));
+        }
+        return requests;
+    }
+
+    private static HttpServletRequest servletRequest(String path) {
+        HttpServletRequest servletRequest = mock(HttpServletRequest.class);
+        when(servletRequest.getMethod()).thenReturn("GET");
+        when(servletRequest.getPathInfo()).thenReturn(path);
+        return servletRequest;
+    }
+
+}
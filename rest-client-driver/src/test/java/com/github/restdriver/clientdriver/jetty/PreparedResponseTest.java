@@ -0,0 +1,75 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.github.restdriver.clientdriver.ClientDriverResponse;
+
+public class PreparedResponseTest {
+    
+    @Test
+    public void preparedResponseIsOnlyCurrentUntilResponseChanges() {
+        ClientDriverResponse response = new ClientDriverResponse("content", "text/plain");
+        
+        PreparedResponse prepared = new PreparedResponse(response);
+        assertThat(prepared.isCurrentFor(response), is(true));
+        
+        response.withHeader("X-Custom", "value");
+        
+        assertThat(prepared.isCurrentFor(response), is(false));
+        assertThat(new PreparedResponse(response).getFields().toString(), containsString("X-Custom: value"));
+    }
+    
+    @Test
+    public void contentTypeAndLengthAreNotWrittenAsFields() {
+        ClientDriverResponse response = new ClientDriverResponse("content", "text/plain").withHeader("Content-Length", "7");
+        
+        PreparedResponse prepared = new PreparedResponse(response);
+        
+        assertThat(prepared.getContentType(), is("text/plain"));
+        assertThat(prepared.getContentLength(), is(7L));
+        assertThat(prepared.getFields().toString(), not(containsString("Content-")));
+    }
+    
+    @Test
+    public void preparedBodyCanBeSentRepeatedly() {
+        PreparedResponse prepared = new PreparedResponse(new ClientDriverResponse("content", "text/plain"));
+        
+        ByteBuffer first = prepared.getBody();
+        first.position(first.limit());
+        
+        assertThat(prepared.getBody().remaining(), is(7));
+        assertThat(prepared.getBody().isReadOnly(), is(true));
+        assertThat(prepared.getBody().isDirect(), is(true));
+    }
+    
+    @Test
+    public void contentTypeHeaderOverridesContentType() {
+        ClientDriverResponse response = new ClientDriverResponse("content", "text/plain").withHeader("Content-Type", "application/json");
+        
+        PreparedResponse prepared = new PreparedResponse(response);
+        
+        assertThat(prepared.getContentType(), is("application/json"));
+        assertThat(prepared.getFields().toString(), not(containsString("Content-Type")));
+    }
+    
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import static com.github.restdriver.clientdriver.RestClientDriver.*;
+import static com.github.restdriver.clientdriver.jetty.RegexPrefixTrie.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.github.restdriver.clientdriver.ClientDriverExpectation;
+import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
+import com.github.restdriver.clientdriver.ClientDriverRequestResponsePair;
+
+public class RegexPrefixTrieTest {
+
+    @Test
+    public void literalPrefixEndsAtFirstMetacharacter() {
+        assertThat(literalPrefixOf(Pattern.compile("/users/[0-9]+")), is("/users/"));
+        assertThat(literalPrefixOf(Pattern.compile("^/users/.*")), is("/users/"));
+        assertThat(literalPrefixOf(Pattern.compile("/exact")), is("/exact"));
+    }
+
+    @Test
+    public void escapedCharactersArePartOfLiteralPrefix() {
+        assertThat(literalPrefixOf(Pattern.compile("/v1\\.0/\\d+")), is("/v1.0/"));
+    }
+
+    @Test
+    public void quantifiedCharacterIsNotPartOfLiteralPrefix() {
+        assertThat(literalPrefixOf(Pattern.compile("/items?/1")), is("/item"));
+        assertThat(literalPrefixOf(Pattern.compile("/a{2}")), is("/"));
+    }
+
+    @Test
+    public void alternationOrFlagsGiveEmptyPrefix() {
+        assertThat(literalPrefixOf(Pattern.compile("/foo|/bar")), is(""));
+        assertThat(literalPrefixOf(Pattern.compile("/foo", Pattern.CASE_INSENSITIVE)), is(""));
+        assertThat(literalPrefixOf(Pattern.compile("/(foo|bar)")), is("/"));
+    }
+
+    @Test
+    public void clearedTrieHasNoBucketsLeft() {
+        RegexPrefixTrie trie = new RegexPrefixTrie();
+        Map<Long, ClientDriverExpectation> before = trie.bucketFor(Method.GET, Pattern.compile("/users/[0-9]+"));
+        before.put(0L, new ClientDriverExpectation(new ClientDriverRequestResponsePair(onRequestTo("/users/1"), giveEmptyResponse())));
+
+        trie.clear();
+
+        List<Map<Long, ClientDriverExpectation>> buckets = new ArrayList<Map<Long, ClientDriverExpectation>>();
+        trie.collectBuckets(Method.GET, "/users/42", buckets);
+        assertThat(buckets, is(empty()));
+        assertThat(trie.bucketFor(Method.GET, Pattern.compile("/users/[0-9]+")), is(not(sameInstance(before))));
+    }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.jetty;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
+import com.github.restdriver.clientdriver.HttpRealRequest;
+import com.github.restdriver.clientdriver.jetty.RequestJournal.EvictionPolicy;
+import com.github.restdriver.matchers.MatchesRegex;
+
+public class RequestJournalTest {
+
+    private final HttpRealRequest first = mock(HttpRealRequest.class);
+    private final HttpRealRequest second = mock(HttpRealRequest.class);
+    private final HttpRealRequest third = mock(HttpRealRequest.class);
+
+    @Test
+    public void requestsAreGivenInArrivalOrder() {
+        RequestJournal journal = new RequestJournal(3, EvictionPolicy.EVICT_OLDEST);
+        journal.record(first);
+        journal.record(second);
+
+        assertThat(journal.getRequests(), contains(first, second));
+        assertThat(journal.getLostCount(), is(0L));
+    }
+
+    @Test
+    public void oldestRequestIsEvictedWhenFull() {
+        RequestJournal journal = new RequestJournal(2, EvictionPolicy.EVICT_OLDEST);
+        journal.record(first);
+        journal.record(second);
+        journal.record(third);
+
+        assertThat(journal.getRequests(), contains(second, third));
+        assertThat(journal.getLostCount(), is(1L));
+    }
+
+    @Test
+    public void newestRequestIsDiscardedWhenFull() {
+        RequestJournal journal = new RequestJournal(2, EvictionPolicy.DISCARD_NEWEST);
+        journal.record(first);
+        journal.record(second);
+        journal.record(third);
+
+        assertThat(journal.getRequests(), contains(first, second));
+        assertThat(journal.getLostCount(), is(1L));
+    }
+
+    @Test
+    public void resetHidesEarlierRequestsAndLosses() {
+        RequestJournal journal = new RequestJournal(2, EvictionPolicy.EVICT_OLDEST);
+        journal.record(first);
+        journal.record(second);
+        journal.record(third);
+
+        journal.reset();
+        journal.record(first);
+
+        assertThat(journal.getRequests(), contains(first));
+        assertThat(journal.getLostCount(), is(0L));
+    }
+
+    @Test
+    public void requestsAreFoundByMethodAndPath() {
+        RequestJournal journal = new RequestJournal(10, EvictionPolicy.EVICT_OLDEST);
+        HttpRealRequest getItem = request("GET", "/items/1");
+        HttpRealRequest postItem = request("POST", "/items/1");
+        HttpRealRequest getOtherItem = request("GET", "/items/2");
+        HttpRealRequest getItemAgain = request("GET", "/items/1");
+        journal.record(getItem);
+        journal.record(postItem);
+        journal.record(getOtherItem);
+        journal.record(getItemAgain);
+
+        assertThat(journal.getRequests(Method.GET, "/items/1"), contains(getItem, getItemAgain));
+        assertThat(journal.getRequests(Method.POST, "/items/1"), contains(postItem));
+        assertThat(journal.getRequests(Method.PUT, "/items/1"), is(empty()));
+        assertThat(journal.getRequests(Method.GET, new MatchesRegex(Pattern.compile("/items/\\d"))), containsInAnyOrder(getItem, getOtherItem, getItemAgain));
+    }
+
+    @Test
+    public void evictedAndResetRequestsAreNotFoundByMethodAndPath() {
+        RequestJournal journal = new RequestJournal(2, EvictionPolicy.EVICT_OLDEST);
+        HttpRealRequest oldest = request("GET", "/a");
+        HttpRealRequest older = request("GET", "/a");
+        HttpRealRequest newest = request("GET", "/b");
+        journal.record(oldest);
+        journal.record(older);
+        journal.record(newest);
+
+        assertThat(journal.getRequests(Method.GET, "/a"), contains(older));
+
+        journal.reset();
+
+        assertThat(journal.getRequests(Method.GET, "/a"), is(empty()));
+        assertThat(journal.getRequests(Method.GET, "/b"), is(empty()));
+    }
+
+    @Test
+    public void requestWithNoPathIsNotFoundByEmptyPath() {
+        RequestJournal journal = new RequestJournal(3, EvictionPolicy.EVICT_OLDEST);
+        HttpRealRequest noPath = request("GET", null);
+        HttpRealRequest emptyPath = request("GET", "");
+        journal.record(noPath);
+        journal.record(emptyPath);
+
+        assertThat(journal.getRequests(Method.GET, ""), contains(emptyPath));
+        assertThat(journal.getRequests(Method.GET, (String) null), contains(noPath));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        new RequestJournal(0, EvictionPolicy.EVICT_OLDEST);
+    }
+
+    private static HttpRealRequest request(String method, String path) {
+        HttpServletRequest servletRequest = mock(HttpServletRequest.class);
+        when(servletRequest.getMethod()).thenReturn(method);
+        when(servletRequest.getPathInfo()).thenReturn(path);
+        return new HttpRealRequest(servletRequest);
+    }
+
+}
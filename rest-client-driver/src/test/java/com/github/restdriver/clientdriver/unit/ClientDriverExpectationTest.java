@@ -85,6 +85,34 @@ public class ClientDriverExpectationTest {
         assertThat(expectation.isSatisfied(), is(true));
     }
     
+    @Test
+    public void tryingToMatchSatisfiedExpectationFails() {
+        MatchedRequestHandler matchHandlerMock = mock(MatchedRequestHandler.class);
+        ClientDriverExpectation expectation = new ClientDriverExpectation(PAIR);
+        expectation.times(2).whenMatched(matchHandlerMock);
+        
+        HttpRealRequest realRequest = mock(HttpRealRequest.class);
+        
+        assertThat(expectation.tryMatch(realRequest), is(true));
+        assertThat(expectation.tryMatch(realRequest), is(true));
+        assertThat(expectation.tryMatch(realRequest), is(false));
+        assertThat(expectation.getStatusString(), is("expected: 2, actual: 2"));
+        verify(matchHandlerMock, times(2)).onMatch(realRequest);
+    }
+    
+    @Test
+    public void tryingToMatchExpectationExpectedAnyNumberOfTimesAlwaysSucceeds() {
+        ClientDriverExpectation expectation = new ClientDriverExpectation(PAIR);
+        expectation.anyTimes();
+        
+        HttpRealRequest realRequest = mock(HttpRealRequest.class);
+        
+        for (int i = 0; i < 5; i++) {
+            assertThat(expectation.tryMatch(realRequest), is(true));
+        }
+        assertThat(expectation.getStatusString(), is("expected: any, actual: 5"));
+    }
+    
     @Test
     public void matchingExpectationCallsMatcher() {
         MatchedRequestHandler matchHandlerMock = mock(MatchedRequestHandler.class);
@@ -15,13 +15,22 @@
  */
 package com.github.restdriver.clientdriver.unit;
 
+import static com.github.restdriver.clientdriver.RestClientDriver.*;
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
 import org.junit.Test;
 
 import com.github.restdriver.clientdriver.ClientDriver;
 import com.github.restdriver.clientdriver.ClientDriverFactory;
+import com.github.restdriver.clientdriver.jetty.ServerSettings;
 
 public class ClientDriverFactoryTest {
     
@@ -30,4 +39,34 @@ public class ClientDriverFactoryTest {
         // Hopefully no exceptions here
         assertThat(new ClientDriverFactory().createClientDriver(), instanceOf(ClientDriver.class));
     }
+    
+    @Test
+    public void driverStartsWithSizedThreadPoolAndConnector() {
+        ServerSettings settings = new ServerSettings().minThreads(2).maxThreads(16).acceptors(1).selectors(1);
+        ClientDriver driver = new ClientDriverFactory().serverSettings(settings).createClientDriver();
+        
+        try {
+            assertThat(driver.getPort(), greaterThan(0));
+        } finally {
+            driver.shutdown();
+        }
+    }
+    
+    @Test
+    public void driverWithVirtualThreadsHandlesRequestsWhetherOrNotTheJvmHasThem() throws IOException {
+        ClientDriver driver = new ClientDriverFactory().serverSettings(new ServerSettings().virtualThreads()).createClientDriver();
+        
+        try {
+            driver.addExpectation(onRequestTo("/virtual"), giveResponse("handled", "text/plain"));
+            driver.addExpectation(onRequestTo("/delayed"), giveResponse("delayed", "text/plain").after(50, TimeUnit.MILLISECONDS));
+            
+            HttpResponse response = new DefaultHttpClient().execute(new HttpGet(driver.getBaseUrl() + "/virtual"));
+            assertThat(IOUtils.toString(response.getEntity().getContent()), is("handled"));
+            
+            HttpResponse delayedResponse = new DefaultHttpClient().execute(new HttpGet(driver.getBaseUrl() + "/delayed"));
+            assertThat(IOUtils.toString(delayedResponse.getEntity().getContent()), is("delayed"));
+        } finally {
+            driver.shutdown();
+        }
+    }
 }
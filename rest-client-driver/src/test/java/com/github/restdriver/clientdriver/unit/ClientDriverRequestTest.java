@@ -17,11 +17,15 @@ package com.github.restdriver.clientdriver.unit;
 
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import org.junit.Test;
 
 import com.github.restdriver.clientdriver.ClientDriverRequest;
 import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
+import com.github.restdriver.clientdriver.PathTemplate;
+import com.github.restdriver.clientdriver.RealRequest;
 
 public class ClientDriverRequestTest {
     
@@ -47,6 +51,18 @@ public class ClientDriverRequestTest {
         assertThat(request.getBodyContentType().matches("text/xml"), is(true));
     }
     
+    @Test
+    public void pathVariablesAreTakenFromTheRealRequest() {
+        RealRequest realRequest = mock(RealRequest.class);
+        when(realRequest.getPath()).thenReturn("/users/42/orders/7");
+        
+        ClientDriverRequest templated = new ClientDriverRequest(new PathTemplate("/users/{id}/orders/{orderId}"));
+        
+        assertThat(templated.getPathVariables(realRequest), allOf(hasEntry("id", "42"), hasEntry("orderId", "7")));
+        assertThat(new ClientDriverRequest("/users/42/orders/7").getPathVariables(realRequest).isEmpty(), is(true));
+        assertThat(new ClientDriverRequest(new PathTemplate("/users/{id}")).getPathVariables(realRequest).isEmpty(), is(true));
+    }
+    
     @Test
     public void toStringIncludesPath() {
         ClientDriverRequest request = new ClientDriverRequest("/blah");
@@ -62,6 +78,13 @@ public class ClientDriverRequestTest {
         assertThat(request.toString(), containsString("POST"));
     }
     
+    @Test
+    public void methodsInAnyCaseAreTheSameInstance() {
+        assertThat(Method.custom("get"), is(sameInstance(Method.GET)));
+        assertThat(Method.custom("propfind"), is(sameInstance(Method.custom("PROPFIND"))));
+        assertThat(Method.custom("PATCH"), is(not(Method.custom("PUT"))));
+    }
+
     @Test
     public void toStringIncludesParams() {
         ClientDriverRequest request = new ClientDriverRequest("/blah").withParam("q", "something").withParam("rows", "10");
@@ -15,6 +15,7 @@
  */
 package com.github.restdriver.clientdriver.unit;
 
+import static java.util.concurrent.TimeUnit.*;
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 import static org.mockito.Matchers.*;
@@ -22,6 +23,7 @@ import static org.mockito.Mockito.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Rule;
@@ -192,6 +194,15 @@ public class ClientDriverResponseTest {
         new ClientDriverResponse(mockInputStream, "application/octet-stream");
     }
     
+    @Test
+    public void creatingResponseWithMissingFileThrowsClientResponseCreationException() {
+        
+        thrown.expect(ClientDriverResponseCreationException.class);
+        thrown.expectMessage("unable to create client driver response from file");
+        
+        new ClientDriverResponse(Paths.get("does", "not", "exist"), "application/octet-stream");
+    }
+    
     @SuppressWarnings("deprecation")
     @Test
     public void usingHeaderCanOverrideContentType() {
@@ -232,4 +243,32 @@ public class ClientDriverResponseTest {
         assertThat(response.getHeaders(), hasEntry("Server", "server-name"));
     }
     
+    @Test
+    public void revisionChangesWhenResponseChanges() {
+        ClientDriverResponse response = new ClientDriverResponse("content", "text/plain");
+        
+        int revision = response.getRevision();
+        response.withHeader("X-Custom", "value");
+        
+        assertThat(response.getRevision(), is(not(revision)));
+    }
+    
+    @Test
+    public void bandwidthIsSentAsTwentyPiecesASecond() {
+        ClientDriverResponse response = new ClientDriverResponse("content", "text/plain").withBandwidth(1000);
+        
+        assertThat(response.isThrottled(), is(true));
+        assertThat(response.isChunked(), is(false));
+        assertThat(response.getChunkSize(), is(50));
+        assertThat(response.getChunkPauseNanos(), is(MILLISECONDS.toNanos(50)));
+    }
+    
+    @Test
+    public void lowBandwidthIsSentAByteAtATime() {
+        ClientDriverResponse response = new ClientDriverResponse("content", "text/plain").withBandwidth(4);
+        
+        assertThat(response.getChunkSize(), is(1));
+        assertThat(response.getChunkPauseNanos(), is(MILLISECONDS.toNanos(250)));
+    }
+    
 }
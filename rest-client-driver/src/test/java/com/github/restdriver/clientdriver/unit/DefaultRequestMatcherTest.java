@@ -20,21 +20,33 @@ import static org.hamcrest.Matchers.*;
 import static org.mockito.Mockito.*;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.io.IOUtils;
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
 import org.junit.Before;
 import org.junit.Test;
+import org.w3c.dom.Element;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.restdriver.Matchers;
 import com.github.restdriver.clientdriver.ClientDriverRequest;
 import com.github.restdriver.clientdriver.ClientDriverRequest.Method;
 import com.github.restdriver.clientdriver.DefaultRequestMatcher;
+import com.github.restdriver.clientdriver.HttpRealRequest;
 import com.github.restdriver.clientdriver.RealRequest;
+import com.github.restdriver.clientdriver.Rejection;
 
 // suppressed to allow inline definition of maps with asMap()
 @SuppressWarnings("unchecked")
@@ -58,14 +70,8 @@ public class DefaultRequestMatcherTest {
     
     private RealRequest mockRealRequest(String path, Method method, Map<String, Object> headers,
             Map<String, Collection<String>> params, byte[] content, String contentType) {
-        RealRequest real = mock(RealRequest.class);
-        when(real.getPath()).thenReturn(path);
-        when(real.getMethod()).thenReturn(method);
-        when(real.getHeaders()).thenReturn(headers);
-        when(real.getParams()).thenReturn(params);
-        when(real.getBodyContent()).thenReturn(content);
-        when(real.getBodyContentType()).thenReturn(contentType);
-        return real;
+        // a spy rather than a mock, so that the default methods of RealRequest work from these values
+        return spy(new FixedRealRequest(path, method, headers, params, content, contentType));
     }
     
     @Test
@@ -379,6 +385,49 @@ public class DefaultRequestMatcherTest {
         assertThat(sut.isMatch(real, expected), is(true));
     }
     
+    @Test
+    public void rejectionIsRecordedOnRequestAndOnlyDescribedWhenAsked() throws IOException {
+        
+        HttpServletRequest servletRequest = mock(HttpServletRequest.class);
+        when(servletRequest.getPathInfo()).thenReturn("aaaaa");
+        when(servletRequest.getMethod()).thenReturn("POST");
+        when(servletRequest.getContentType()).thenReturn("text/junk");
+        when(servletRequest.getHeaderNames()).thenReturn(Collections.enumeration(Collections.<String> emptyList()));
+        when(servletRequest.getInputStream()).thenReturn(new DummyServletInputStream(IOUtils.toInputStream("ooooh")));
+        HttpRealRequest real = new HttpRealRequest(servletRequest);
+        
+        final AtomicInteger descriptions = new AtomicInteger();
+        BaseMatcher<String> body = new BaseMatcher<String>() {
+            @Override
+            public boolean matches(Object item) {
+                return false;
+            }
+            
+            @Override
+            public void describeTo(Description description) {
+                descriptions.incrementAndGet();
+                description.appendText("aaaah");
+            }
+        };
+        
+        ClientDriverRequest expected = new ClientDriverRequest("aaaaa").withMethod(Method.POST).withBody(body, "text/junk");
+        
+        assertThat(new DefaultRequestMatcher(0).isMatch(real, expected), is(false));
+        assertThat(descriptions.get(), is(0));
+        
+        List<Rejection> rejections = real.getRejections();
+        assertThat(rejections, hasSize(1));
+        assertThat(rejections.get(0).getExpectedRequest(), sameInstance(expected));
+        assertThat(rejections.get(0).getCheck(), is("body"));
+        assertThat(rejections.get(0).getReason(), containsString("aaaah"));
+        assertThat(descriptions.get(), is(1));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectionLogSampleRateAboveOneIsNotAllowed() {
+        new DefaultRequestMatcher(1.5);
+    }
+    
     @Test
     public void testMatchWithRequestBodyWrongType() throws IOException {
         
@@ -522,6 +571,99 @@ public class DefaultRequestMatcherTest {
         assertThat(sut.isMatch(real, expected), is(false));
     }
     
+    @Test
+    public void bodyIsNotReadWhenCheaperCheckRejects() {
+        
+        RealRequest real = mockRealRequest("aaaaa", Method.GET, headers, params, "body".getBytes(), "text/plain");
+        ClientDriverRequest expected = new ClientDriverRequest("aaaaa")
+                .withBody("body", "text/plain")
+                .withHeader("X-Missing", "value");
+        
+        assertThat(sut.isMatch(real, expected), is(false));
+        verify(real, never()).getBodyContent();
+    }
+    
+    @Test
+    public void rejectionsAreCountedByCheck() {
+        
+        RealRequest real = mockRealRequest("aaaaa", Method.GET, headers, params, content, contentType);
+        ClientDriverRequest expected = new ClientDriverRequest("bbbbb");
+        
+        sut.isMatch(real, expected);
+        sut.isMatch(real, expected);
+        
+        assertThat(expected.getRejectionCounts().get("path"), is(2L));
+        assertThat(expected.getRejectionCounts().get("method"), is(0L));
+    }
+    
+    @Test
+    public void patternPathIsCheckedBeforeHeaders() {
+        
+        RealRequest real = mockRealRequest("aaaaa", Method.GET, headers, params, content, contentType);
+        ClientDriverRequest expected = new ClientDriverRequest(Pattern.compile("b+"))
+                .withHeader("X-Missing", "value")
+                .withoutHeader("X-Excluded");
+        
+        sut.isMatch(real, expected);
+        
+        assertThat(expected.getRejectionCounts().get("path"), is(1L));
+        assertThat(expected.getRejectionCounts().get("excluded headers"), is(0L));
+        assertThat(expected.getRejectionCounts().get("header x-missing"), is(0L));
+    }
+    
+    @Test
+    public void quietMatchesCountNoRejections() {
+        
+        RealRequest real = mockRealRequest("aaaaa", Method.GET, headers, params, content, contentType);
+        ClientDriverRequest expected = new ClientDriverRequest("bbbbb");
+        
+        assertThat(sut.isMatchQuietly(real, expected), is(false));
+        assertThat(sut.isMatchQuietly(mockRealRequest("bbbbb", Method.GET, headers, params, content, contentType), expected), is(true));
+        
+        assertThat(expected.getRejectionCounts().get("path"), is(0L));
+    }
+    
+    @Test
+    public void onlyRequestsWithBuiltInMatchersCanBeMatchedConcurrently() {
+        
+        ClientDriverRequest builtIn = new ClientDriverRequest(Pattern.compile("/items/\\d+")).withParam("page", "2").withHeader("Accept", containsString("json"));
+        ClientDriverRequest custom = new ClientDriverRequest("/items").withBody(anyOf(containsString("a"), containsString("b")), "text/plain");
+        
+        assertThat(sut.canMatchConcurrently(builtIn), is(true));
+        assertThat(sut.canMatchConcurrently(custom), is(false));
+    }
+    
+    @Test
+    public void changingRequestRecompilesItsPlan() {
+        
+        RealRequest real = mockRealRequest("aaaaa", Method.POST, headers, params, content, contentType);
+        ClientDriverRequest expected = new ClientDriverRequest("aaaaa");
+        
+        assertThat(sut.isMatch(real, expected), is(false));
+        
+        expected.withMethod(Method.POST);
+        
+        assertThat(sut.isMatch(real, expected), is(true));
+    }
+    
+    @Test
+    public void jsonBodyMatcherIsGivenParsedBodyOfRequest() throws Exception {
+        
+        HttpServletRequest servletRequest = mock(HttpServletRequest.class);
+        when(servletRequest.getPathInfo()).thenReturn("aaaaa");
+        when(servletRequest.getMethod()).thenReturn("POST");
+        when(servletRequest.getContentType()).thenReturn("application/json");
+        when(servletRequest.getInputStream()).thenReturn(new DummyServletInputStream(IOUtils.toInputStream("{\"a\":1}")));
+        HttpRealRequest real = new HttpRealRequest(servletRequest);
+        ClientDriverRequest expected = new ClientDriverRequest("aaaaa")
+                .withMethod(Method.POST)
+                .withBody(Matchers.hasJsonWhich(Matchers.hasJsonPath("$.a", is(1))), "application/json");
+        
+        assertThat(sut.isMatch(real, expected), is(true));
+        assertThat(sut.isMatch(real, expected), is(true));
+        verify(servletRequest, times(1)).getInputStream();
+    }
+    
     private static List<String> asStringList(String... strings) {
         return Arrays.asList(strings);
     }
@@ -551,4 +693,83 @@ public class DefaultRequestMatcherTest {
         
         return map;
     }
+    
+    private static class FixedRealRequest implements RealRequest {
+        
+        private final String path;
+        private final Method method;
+        private final Map<String, Object> headers;
+        private final Map<String, Collection<String>> params;
+        private final byte[] content;
+        private final String contentType;
+        
+        FixedRealRequest(String path, Method method, Map<String, Object> headers,
+                Map<String, Collection<String>> params, byte[] content, String contentType) {
+            this.path = path;
+            this.method = method;
+            this.headers = headers;
+            this.params = params;
+            this.content = content;
+            this.contentType = contentType;
+        }
+        
+        @Override
+        public Method getMethod() {
+            return method;
+        }
+        
+        @Override
+        public String getPath() {
+            return path;
+        }
+        
+        @Override
+        public Map<String, Collection<String>> getParams() {
+            return params;
+        }
+        
+        @Override
+        public Map<String, Object> getHeaders() {
+            return headers;
+        }
+        
+        @Override
+        public String getBodyContentType() {
+            return contentType;
+        }
+        
+        @Override
+        public byte[] getBodyContent() {
+            return content;
+        }
+        
+        // this version of Mockito will not call a real method declared only by an interface, even a default one
+        
+        @Override
+        public List<String> getHeaderValues(String name) {
+            return RealRequest.super.getHeaderValues(name);
+        }
+        
+        @Override
+        public Charset getCharset() {
+            return RealRequest.super.getCharset();
+        }
+        
+        @Override
+        public String getBodyText() {
+            return RealRequest.super.getBodyText();
+        }
+        
+        @Override
+        public JsonNode getBodyJson() {
+            return RealRequest.super.getBodyJson();
+        }
+        
+        @Override
+        public Element getBodyXml() {
+            return RealRequest.super.getBodyXml();
+        }
+        
+    }
+    
 }
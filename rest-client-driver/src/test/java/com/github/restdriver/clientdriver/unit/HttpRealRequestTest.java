@@ -19,6 +19,7 @@ import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -50,7 +51,7 @@ public class HttpRealRequestTest {
         when(mockRequest.getMethod()).thenReturn(expectedMethod);
         when(mockRequest.getQueryString()).thenReturn("hello=world");
         when(mockRequest.getHeaderNames()).thenReturn(expectedHeaderNames);
-        when(mockRequest.getHeader("header1")).thenReturn("thisIsHeader1");
+        when(mockRequest.getHeaders("header1")).thenReturn(Collections.enumeration(Arrays.asList("thisIsHeader1")));
         when(mockRequest.getInputStream()).thenReturn(new DummyServletInputStream(IOUtils.toInputStream(bodyContent)));
         when(mockRequest.getContentType()).thenReturn(expectedContentType);
         
@@ -65,4 +66,115 @@ public class HttpRealRequestTest {
         
     }
     
+    @Test
+    public void protocolAndConcurrentRequestsAreRecorded() {
+        
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        when(mockRequest.getMethod()).thenReturn("GET");
+        when(mockRequest.getProtocol()).thenReturn("HTTP/2.0");
+        
+        HttpRealRequest realRequest = new HttpRealRequest(mockRequest, 3);
+        
+        assertThat(realRequest.getProtocol(), is("HTTP/2.0"));
+        assertThat(realRequest.getConcurrentRequests(), is(3));
+    }
+    
+    @Test
+    public void bodyIsNotReadUntilAskedFor() throws IOException {
+        
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        when(mockRequest.getPathInfo()).thenReturn("/path");
+        when(mockRequest.getMethod()).thenReturn("POST");
+        when(mockRequest.getInputStream()).thenReturn(new DummyServletInputStream(IOUtils.toInputStream("body")));
+        
+        RealRequest realRequest = new HttpRealRequest(mockRequest);
+        
+        assertThat(realRequest.getMethod(), is(Method.POST));
+        verify(mockRequest, never()).getInputStream();
+        verify(mockRequest, never()).getQueryString();
+        
+        assertThat(new String(realRequest.getBodyContent()), is("body"));
+    }
+    
+    @Test
+    public void detachedRequestNoLongerUsesServletRequest() throws IOException {
+        
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        when(mockRequest.getPathInfo()).thenReturn("/path");
+        when(mockRequest.getMethod()).thenReturn("POST");
+        when(mockRequest.getQueryString()).thenReturn("hello=world");
+        when(mockRequest.getInputStream()).thenReturn(new DummyServletInputStream(IOUtils.toInputStream("body")));
+        
+        HttpRealRequest realRequest = new HttpRealRequest(mockRequest);
+        realRequest.detach(10);
+        reset(mockRequest);
+        
+        assertThat(realRequest.getParams().get("hello"), hasItem("world"));
+        assertThat(realRequest.isBodyRetained(), is(true));
+        assertThat(new String(realRequest.getBodyContent()), is("body"));
+        verifyZeroInteractions(mockRequest);
+    }
+    
+    @Test
+    public void detachingDoesNotRetainLongUnreadBody() throws IOException {
+        
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        when(mockRequest.getPathInfo()).thenReturn("/path");
+        when(mockRequest.getMethod()).thenReturn("POST");
+        when(mockRequest.getContentLength()).thenReturn(-1);
+        when(mockRequest.getInputStream()).thenReturn(new DummyServletInputStream(IOUtils.toInputStream("a long body")));
+        
+        HttpRealRequest realRequest = new HttpRealRequest(mockRequest);
+        realRequest.detach(4);
+        
+        assertThat(realRequest.isBodyRetained(), is(false));
+        assertThat(realRequest.toString(), containsString("BODY <not retained>"));
+    }
+    
+    @Test
+    public void bodyTextIsDecodedOnceUsingCharsetOfContentType() throws IOException {
+        
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        when(mockRequest.getPathInfo()).thenReturn("/path");
+        when(mockRequest.getMethod()).thenReturn("POST");
+        when(mockRequest.getContentType()).thenReturn("text/plain; charset=ISO-8859-1");
+        when(mockRequest.getInputStream()).thenReturn(new DummyServletInputStream(new ByteArrayInputStream("caf\u00e9".getBytes("ISO-8859-1"))));
+        
+        RealRequest realRequest = new HttpRealRequest(mockRequest);
+        
+        assertThat(realRequest.getBodyText(), is("caf\u00e9"));
+        assertThat(realRequest.getBodyText(), is(sameInstance(realRequest.getBodyText())));
+    }
+    
+    @Test
+    public void bodyJsonIsParsedOnce() throws IOException {
+        
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        when(mockRequest.getPathInfo()).thenReturn("/path");
+        when(mockRequest.getMethod()).thenReturn("POST");
+        when(mockRequest.getContentType()).thenReturn("application/json");
+        when(mockRequest.getInputStream()).thenReturn(new DummyServletInputStream(IOUtils.toInputStream("{\"a\":1}")));
+        
+        RealRequest realRequest = new HttpRealRequest(mockRequest);
+        
+        assertThat(realRequest.getBodyJson().get("a").asInt(), is(1));
+        assertThat(realRequest.getBodyJson(), is(sameInstance(realRequest.getBodyJson())));
+    }
+    
+    @Test
+    public void headerValuesAreLookedUpIgnoringCaseWithEveryValue() throws IOException {
+        
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        when(mockRequest.getPathInfo()).thenReturn("/path");
+        when(mockRequest.getMethod()).thenReturn("GET");
+        when(mockRequest.getHeaderNames()).thenReturn(Collections.enumeration(Arrays.asList("Accept")));
+        when(mockRequest.getHeaders("Accept")).thenReturn(Collections.enumeration(Arrays.asList("text/html", "application/json")));
+        
+        RealRequest realRequest = new HttpRealRequest(mockRequest);
+        
+        assertThat(realRequest.getHeaderValues("ACCEPT"), is(Arrays.asList("text/html", "application/json")));
+        assertThat(realRequest.getHeaderValues("Content-Type"), is(empty()));
+        assertThat((String) realRequest.getHeaders().get("accept"), is("text/html"));
+    }
+    
 }
@@ -0,0 +1,56 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.clientdriver.unit;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.restdriver.clientdriver.PathTemplate;
+
+public class PathTemplateTest {
+    
+    @Test
+    public void templateMatchesPathsWithAnyValueForEachVariable() {
+        PathTemplate template = new PathTemplate("/users/{id}/orders/{orderId}");
+        
+        assertThat(template.matches("/users/42/orders/7"), is(true));
+        assertThat(template.matches("/users/42/orders"), is(false));
+        assertThat(template.matches("/users//orders/7"), is(false));
+        assertThat(template.matches("/accounts/42/orders/7"), is(false));
+    }
+    
+    @Test
+    public void variablesAreExtractedInOrder() {
+        PathTemplate template = new PathTemplate("/users/{id}/orders/{orderId}");
+        
+        Map<String, String> variables = template.getVariables("/users/42/orders/7");
+        
+        assertThat(variables.keySet(), contains("id", "orderId"));
+        assertThat(variables.get("id"), is("42"));
+        assertThat(variables.get("orderId"), is("7"));
+        assertThat(template.getVariables("/users/42"), is(nullValue()));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void variableMustBeWholeSegment() {
+        new PathTemplate("/files/{name}.json");
+    }
+    
+}
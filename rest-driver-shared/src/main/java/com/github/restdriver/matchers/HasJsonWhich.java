@@ -38,6 +38,13 @@ public class HasJsonWhich extends TypeSafeMatcher<String> {
         this.matcher = matcher;
     }
     
+    /**
+     * @return The matcher applied to the parsed JSON, for callers which already hold the parsed form of the string
+     */
+    public Matcher<JsonNode> getJsonMatcher() {
+        return matcher;
+    }
+    
     @Override
     public void describeTo(Description description) {
         matcher.describeTo(description);
@@ -18,29 +18,12 @@ package com.github.restdriver.matchers;
 import org.hamcrest.Matcher;
 import org.hamcrest.Matchers;
 import org.hamcrest.TypeSafeMatcher;
-import org.w3c.dom.Node;
-
-import com.github.restdriver.XmlUtil;
-import com.github.restdriver.matchers.util.HamcrestConverter;
-import com.google.common.base.Function;
 
 public final class HasXPath {
     
     private HasXPath() {
     }
     
-    /**
-     * For wrapping the Node Matcher
-     * 
-     * @see HamcrestConverter
-     */
-    private static final HamcrestConverter<Node, String> NODE_TO_STRING_MATCHER = new HamcrestConverter<Node, String>(new Function<String, Node>() {
-        @Override
-        public Node apply(String s) {
-            return XmlUtil.asXml(s);
-        }
-    });
-    
     /**
      * Returns a Matcher&lt;String&gt; (presumably for matching a string containing XML) which checks that the given xPath is matched by the matcher.
      * 
@@ -49,7 +32,7 @@ public final class HasXPath {
      * @return The matcher
      */
     public static TypeSafeMatcher<String> hasXPath(String xPath, Matcher<String> matcher) {
-        return NODE_TO_STRING_MATCHER.convert(Matchers.hasXPath(xPath, matcher));
+        return new HasXmlWhich(Matchers.hasXPath(xPath, matcher));
     }
     
     /**
@@ -59,6 +42,6 @@ public final class HasXPath {
      * @return The matcher
      */
     public static TypeSafeMatcher<String> hasXPath(String xPath) {
-        return NODE_TO_STRING_MATCHER.convert(Matchers.hasXPath(xPath));
+        return new HasXmlWhich(Matchers.hasXPath(xPath));
     }
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+/**
+ * Copyright © 2010-2011 Nokia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.restdriver.matchers;
+
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.TypeSafeMatcher;
+import org.w3c.dom.Node;
+
+import com.github.restdriver.XmlUtil;
+
+/**
+ * A matcher for string which treats the string as an XML element.
+ */
+public class HasXmlWhich extends TypeSafeMatcher<String> {
+    
+    private final Matcher<? super Node> matcher;
+    
+    public HasXmlWhich(Matcher<? super Node> matcher) {
+        this.matcher = matcher;
+    }
+    
+    /**
+     * @return The matcher applied to the parsed XML, for callers which already hold the parsed form of the string
+     */
+    public Matcher<? super Node> getXmlMatcher() {
+        return matcher;
+    }
+    
+    @Override
+    public void describeTo(Description description) {
+        matcher.describeTo(description);
+    }
+    
+    @Override
+    protected boolean matchesSafely(String item) {
+        return matcher.matches(XmlUtil.asXml(item));
+    }
+    
+}
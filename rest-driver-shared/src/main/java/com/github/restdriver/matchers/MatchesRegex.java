@@ -28,6 +28,13 @@ public class MatchesRegex extends TypeSafeMatcher<String> {
         this.pattern = pattern;
     }
     
+    /**
+     * @return The regular expression which strings are matched against
+     */
+    public Pattern getPattern() {
+        return pattern;
+    }
+    
     @Override
     public final void describeTo(Description description) {
         description.appendText("A string matching the regular expression: " + pattern.toString());